@@ -1,75 +1,433 @@
 package com.example.flutter_pag_plugin
 
+import android.content.ComponentCallbacks2
 import android.content.Context
+import android.content.pm.PackageManager
 import android.os.Environment
+import android.os.Process
+import android.os.SystemClock
+import android.os.Trace
 import android.util.Log
 import android.util.LruCache
+import androidx.annotation.VisibleForTesting
 import com.example.flutter_pag_plugin.utils.EncodeUtil
 import com.jakewharton.disklrucache.DiskLruCache
+import org.libpag.PAGFile
 import java.io.*
 import java.net.HttpURLConnection
 import java.net.URL
 import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
+import java.util.Collections
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.min
 
 //数据加载器
 object DataLoadHelper {
+    @Volatile
     private var diskCache: DiskLruCache? = null
-    private val memoryCache by lazy { LruCache<String, ByteArray>(Runtime.getRuntime().maxMemory().toInt() / 50) }
+    @Volatile
+    private var diskCacheDir: File? = null
+    // 硬盘缓存在IO线程中打开，打开结束（无论成功与否）后放行等待的加载
+    @Volatile
+    private var partialDir: File? = null
+    private val diskCacheInitStarted = AtomicBoolean(false)
+    private val diskCacheReady = CountDownLatch(1)
+    // 按字节数计算大小的内存缓存，默认为最大堆内存的1/50
+    private val memoryCache by lazy {
+        object : LruCache<String, ByteArray>((Runtime.getRuntime().maxMemory() / 50).toInt()) {
+            override fun sizeOf(key: String, value: ByteArray): Int = value.size
+        }
+    }
     private const val TAG = "DataLoadHelper"
     const val DEFAULT_DIS_SIZE = 30 * 1024 * 1024L;
+    private const val IO_THREAD_COUNT = 4
+    private const val BACKGROUND_THREAD_COUNT = 2
+    private const val COPY_BUFFER_SIZE = 16 * 1024
+    const val DEFAULT_FILE_LOAD_THRESHOLD = 2 * 1024 * 1024L
+    // 等待硬盘缓存打开的最长时间，超时后本次加载不使用硬盘缓存
+    private const val DISK_CACHE_WAIT_MS = 3000L
+    // 每个条目两个文件：0为PAG数据，1为校验信息
+    private const val VALUE_COUNT = 2
+    // 失败重试次数及退避时间
+    private const val MAX_RETRY = 3
+    private const val RETRY_BASE_DELAY_MS = 500L
+    private const val RETRY_MAX_DELAY_MS = 4000L
+    private const val RETRY_CHECK_INTERVAL_MS = 100L
+    private const val HTTP_RANGE_NOT_SATISFIABLE = 416
+    private const val PARTIAL_MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L
+    private const val PROGRESS_INTERVAL_MS = 100L
 
     // 下载来源：flutter插件、其他
     const val FROM_PLUGIN = 0
     const val FROM_OTHER = 1
 
-    private val loadListeners = mutableListOf<ILoadListener>()
+    // 数据来源：内存缓存、硬盘缓存、网络（含304校验）
+    const val SOURCE_NONE = -1
+    const val SOURCE_MEMORY = 0
+    const val SOURCE_DISK = 1
+    const val SOURCE_NETWORK = 2
+
+    private val loadListeners = CopyOnWriteArrayList<ILoadListener>()
+
+    // url的内容被新的200响应替换时回调，用于清理基于旧内容的缓存（如解析后的PAGFile）
+    private val invalidationListeners = CopyOnWriteArrayList<(String) -> Unit>()
+
+    // 进行中的加载，相同url的并发请求共享同一次下载/读盘
+    private val inFlightLoads = HashMap<String, InFlightLoad>()
+
+    // 过期时间有限的条目，内存缓存命中时据此判断是否需要校验
+    private val expiries = ConcurrentHashMap<String, Long>()
+    private val revalidatingKeys = Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
+    private val activePartials = Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
+
+    // 有界的IO线程池，不同url并行加载
+    private val ioExecutor: ExecutorService by lazy {
+        val count = AtomicInteger()
+        Executors.newFixedThreadPool(IO_THREAD_COUNT) { runnable ->
+            Thread(runnable, "pag-io-${count.getAndIncrement()}")
+        }
+    }
+
+    // 预加载使用的低优先级IO线程，不与播放所需的加载争抢ioExecutor；排队的任务按priority执行
+    private val backgroundExecutor: ExecutorService by lazy {
+        val count = AtomicInteger()
+        ThreadPoolExecutor(
+            BACKGROUND_THREAD_COUNT, BACKGROUND_THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+            PriorityBlockingQueue<Runnable>()
+        ) { runnable ->
+            Thread({
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+                runnable.run()
+            }, "pag-io-bg-${count.getAndIncrement()}").apply { isDaemon = true }
+        }
+    }
+    private val backgroundSequence = AtomicLong()
+
+    // 硬盘缓存中不小于该大小的文件按路径加载，不读入Java堆也不进入内存缓存
+    @Volatile
+    var fileLoadThreshold = DEFAULT_FILE_LOAD_THRESHOLD
+
+    // 服务器未返回max-age/Expires时硬盘缓存的有效期，单位毫秒，小于0表示不过期
+    @Volatile
+    var defaultMaxAgeMs = -1L
+
+    // 开启后过期的缓存先直接返回，同时在后台发送条件请求更新
+    @Volatile
+    var staleWhileRevalidate = false
+
+    // 重试退避的初始等待时间，测试中缩短
+    @VisibleForTesting
+    @Volatile
+    internal var retryBaseDelayMs = RETRY_BASE_DELAY_MS
+
+    //在IO线程池中执行，用于asset读取解析等不应占用渲染线程的任务
+    fun executeIo(task: Runnable) {
+        ioExecutor.execute(task)
+    }
 
     //初始化pag动画
-    fun loadPag(src: String, addPag: (ByteArray?) -> Unit, from: Int = FROM_OTHER) {
+    fun loadPag(src: String, addPag: (ByteArray?) -> Unit, from: Int = FROM_OTHER): LoadTask {
+        return load(src, from) { result, _ ->
+            addPag(result.bytes ?: result.path?.let { readFileBytes(it) })
+        }
+    }
+
+    //加载为PAGFile，大文件直接从硬盘缓存文件路径加载
+    //background为true时在低优先级线程中加载及解析，priority越大越先开始
+    @JvmOverloads
+    fun loadPagFile(
+        src: String, addPag: (PAGFile?) -> Unit, from: Int = FROM_OTHER,
+        background: Boolean = false, priority: Int = 0
+    ): LoadTask {
+        //内存缓存命中时同样在IO线程中解析，不占用调用线程
+        return load(src, from, background, priority, true) { result, info ->
+            var bytes = result.bytes
+            Trace.beginSection("PAG#parse")
+            val start = System.nanoTime()
+            var file = when {
+                bytes != null -> PAGFile.Load(bytes)
+                result.path != null -> PAGFile.Load(result.path)
+                else -> null
+            }
+            if (file == null && result.path != null) {
+                //文件在返回路径后被淘汰或替换时，经snapshot读取后按字节解析
+                bytes = readCachedBytes(src)
+                file = bytes?.let { PAGFile.Load(it) }
+            }
+            info.parseNanos = System.nanoTime() - start
+            info.sourceBytes = bytes?.size?.toLong() ?: result.path?.let { File(it).length() } ?: 0L
+            Trace.endSection()
+            addPag(file)
+        }
+    }
+
+    //预加载到硬盘和内存缓存，不返回数据，在低优先级线程中执行，priority越大越先开始
+    @JvmOverloads
+    fun prefetch(src: String, done: (Boolean) -> Unit, from: Int = FROM_OTHER, priority: Int = 0): LoadTask {
+        return load(src, from, true, priority) { result, _ ->
+            done(result.bytes != null || result.path != null)
+        }
+    }
+
+    //url已有的数据（如已解析的PAGFile）是否可以直接使用：未过期，或过期但开启了staleWhileRevalidate（同时在后台校验）
+    fun canUseCached(src: String): Boolean {
+        val key = hashKeyForDisk(src) ?: src
+        if (!isExpired(key)) {
+            return true
+        }
+        if (staleWhileRevalidate) {
+            scheduleRevalidate(src, key)
+            return true
+        }
+        return false
+    }
+
+    //asyncMemoryHit为true时内存缓存命中也在线程池中回调
+    private fun load(
+        src: String, from: Int, background: Boolean = false, priority: Int = 0,
+        asyncMemoryHit: Boolean = false, onResult: (LoadResult, LoadInfo) -> Unit
+    ): LoadTask {
         val time = System.currentTimeMillis();
-        val bytes = memoryCache.get(hashKeyForDisk(src))
+        val startNanos = System.nanoTime()
+        val info = LoadInfo()
+        val key = hashKeyForDisk(src) ?: src
+        var bytes = memoryCache.get(key)
+        if (bytes != null && isExpired(key)) {
+            if (staleWhileRevalidate) {
+                scheduleRevalidate(src, key)
+            } else {
+                //过期后经硬盘缓存发送条件请求
+                memoryCache.remove(key)
+                bytes = null
+            }
+        }
 
         loadListeners.forEach {
             it.loadStart(src, from)
         }
 
         if (bytes != null) {
-            addPag(bytes)
+            info.source = SOURCE_MEMORY
+            info.loadNanos = System.nanoTime() - startNanos
+            val hit = bytes
+            //回调与取消只有一个生效
+            val done = AtomicBoolean(false)
+            val deliver = Runnable {
+                if (done.compareAndSet(false, true)) {
+                    onResult(LoadResult(hit, null, ""), info)
+                    loadListeners.forEach {
+                        it.loadComplete(src, hit, System.currentTimeMillis() - time, "", from)
+                    }
+                }
+            }
+            when {
+                !asyncMemoryHit -> deliver.run()
+                background -> backgroundExecutor.execute(PrioritizedRunnable(priority, backgroundSequence.getAndIncrement(), deliver))
+                else -> ioExecutor.execute(deliver)
+            }
+            return LoadTask(info) {
+                if (done.compareAndSet(false, true)) {
+                    loadListeners.forEach {
+                        it.loadComplete(src, null, System.currentTimeMillis() - time, "load cancelled", from)
+                    }
+                }
+            }
+        }
+
+        val callback: (LoadResult) -> Unit = { result ->
+            info.source = result.source
+            info.loadNanos = System.nanoTime() - startNanos
+            onResult(result, info)
+            val resultBytes = result.bytes ?: if (result.path != null) ByteArray(0) else null
             loadListeners.forEach {
-                it.loadComplete(src, bytes, System.currentTimeMillis() - time, "", from)
+                it.loadComplete(src, resultBytes, System.currentTimeMillis() - time, result.errorMsg, from)
             }
-        } else {
-            Thread {
-                loadPagByDisk(src) { byteArray, errorMsg ->
-                    addPag.invoke(byteArray)
+        }
+        var executor: ExecutorService? = null
+        val inFlight = synchronized(inFlightLoads) {
+            var waiting = inFlightLoads[key]
+            if (waiting == null) {
+                waiting = InFlightLoad()
+                waiting.promoted = !background
+                waiting.priority = priority
+                inFlightLoads[key] = waiting
+                executor = if (background) backgroundExecutor else ioExecutor
+            } else if (!background && !waiting.promoted) {
+                //预加载尚在低优先级队列中排队时，普通请求在ioExecutor中再提交一次，先开始的执行
+                waiting.promoted = true
+                executor = ioExecutor
+            } else if (background && !waiting.promoted && priority > waiting.priority) {
+                //更高优先级的预加载按新的优先级再排一次
+                waiting.priority = priority
+                executor = backgroundExecutor
+            }
+            waiting.callbacks.add(callback)
+            waiting
+        }
+        val task = Runnable {
+            if (!inFlight.started.compareAndSet(false, true)) {
+                return@Runnable
+            }
+            val result = if (inFlight.cancelled) {
+                LoadResult(null, null, "load cancelled")
+            } else try {
+                Trace.beginSection("PAG#load")
+                loadPagByDisk(src, { inFlight.cancelled }) { loaded, total ->
                     loadListeners.forEach {
-                        it.loadComplete(src, byteArray, System.currentTimeMillis() - time, errorMsg, from)
+                        (it as? ILoadProgressListener)?.loadProgress(src, loaded, total, from)
                     }
                 }
-            }.start()
+            } catch (e: RuntimeException) {
+                Log.e(TAG, "loadPag error: $e")
+                LoadResult(null, null, "loadPag error: $e")
+            } finally {
+                Trace.endSection()
+            }
+            completeLoad(key, inFlight, result)
+        }
+        val target = executor
+        if (target === backgroundExecutor) {
+            backgroundExecutor.execute(PrioritizedRunnable(priority, backgroundSequence.getAndIncrement(), task))
+        } else {
+            target?.execute(task)
+        }
+        return LoadTask(info) {
+            //加载已完成并回调过时不再重复通知
+            if (cancelLoad(key, inFlight, callback)) {
+                loadListeners.forEach {
+                    it.loadComplete(src, null, System.currentTimeMillis() - time, "load cancelled", from)
+                }
+            }
+        }
+    }
+
+    // 通知所有等待该key的请求
+    private fun completeLoad(key: String, inFlight: InFlightLoad, result: LoadResult) {
+        val callbacks = synchronized(inFlightLoads) {
+            if (inFlightLoads[key] === inFlight) {
+                inFlightLoads.remove(key)
+            }
+            inFlight.callbacks.toList().also { inFlight.callbacks.clear() }
         }
+        callbacks.forEach { it(result) }
     }
 
+    // 移除单个请求的回调，没有其他请求等待时中断加载；之后相同url的请求重新发起加载
+    // 返回false表示加载已完成，回调已被取出执行
+    private fun cancelLoad(key: String, inFlight: InFlightLoad, callback: (LoadResult) -> Unit): Boolean {
+        synchronized(inFlightLoads) {
+            if (!inFlight.callbacks.remove(callback)) {
+                return false
+            }
+            if (inFlight.callbacks.isEmpty()) {
+                inFlight.cancelled = true
+                if (inFlightLoads[key] === inFlight) {
+                    inFlightLoads.remove(key)
+                }
+            }
+            return true
+        }
+    }
+
+    //设置内存缓存上限，单位字节
+    fun setMemoryCacheSize(maxSize: Int) {
+        if (maxSize > 0) {
+            memoryCache.resize(maxSize)
+        }
+    }
+
+    //内存紧张时释放内存缓存
+    fun trimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            memoryCache.evictAll()
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+            || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+            || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+        ) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2)
+        }
+    }
+
+    //内存缓存统计
+    fun getMemoryCacheStats(): Map<String, Any> {
+        return mapOf(
+            "size" to memoryCache.size(),
+            "maxSize" to memoryCache.maxSize(),
+            "hitCount" to memoryCache.hitCount(),
+            "missCount" to memoryCache.missCount(),
+            "evictionCount" to memoryCache.evictionCount(),
+            "putCount" to memoryCache.putCount()
+        )
+    }
+
+    //异步打开硬盘缓存，不阻塞调用线程；打开前到达的加载先查内存缓存，未命中时在IO线程中等待打开完成
     fun initDiskCache(context: Context, size: Long = DEFAULT_DIS_SIZE) {
-        if (diskCache != null) {
+        if (!diskCacheInitStarted.compareAndSet(false, true)) {
             Log.w(TAG, "diskCache do not need init again!")
             return
         }
+        val appContext = context.applicationContext ?: context
+        // 使用独立线程，避免排在已提交的加载之后
+        Thread({ openDiskCache(appContext, size) }, "pag-disk-init").start()
+    }
 
-        val cacheDir = getDiskCacheDir(context, "pag")
-        if (!cacheDir.exists()) {
-            cacheDir.mkdirs()
-        }
+    //创建目录并读取journal，可能耗时较长
+    private fun openDiskCache(context: Context, size: Long) {
+        Trace.beginSection("PAG#initDiskCache")
+        val start = SystemClock.elapsedRealtime()
         try {
-            diskCache = diskCache ?: DiskLruCache.open(
+            val cacheDir = getDiskCacheDir(context, "pag")
+            if (!cacheDir.exists()) {
+                cacheDir.mkdirs()
+            }
+            diskCacheDir = cacheDir
+            //未完成的下载，与硬盘缓存位于同一父目录下，完成后可直接重命名移入
+            val partials = getDiskCacheDir(context, "pag_partial")
+            if (partials.exists() || partials.mkdirs()) {
+                trimPartials(partials)
+                partialDir = partials
+            }
+            diskCache = DiskLruCache.open(
                 cacheDir,
                 context.packageManager.getPackageInfo(context.packageName, 0).versionCode,
-                1, size
+                VALUE_COUNT, size
             )
         } catch (e: IOException) {
             Log.e(TAG, "initDiskCache error: $e")
+        } catch (e: PackageManager.NameNotFoundException) {
+            Log.e(TAG, "initDiskCache error: $e")
+        } finally {
+            diskCacheReady.countDown()
+            Trace.endSection()
+            Log.d(TAG, "initDiskCache cost: ${SystemClock.elapsedRealtime() - start}ms")
+        }
+    }
+
+    //在IO线程中调用，等待硬盘缓存打开；未初始化或超时返回null
+    private fun awaitDiskCache(): DiskLruCache? {
+        if (!diskCacheInitStarted.get()) {
+            return null
+        }
+        try {
+            if (!diskCacheReady.await(DISK_CACHE_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "diskCache not ready, load without disk cache")
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
         }
+        return diskCache
     }
 
 
@@ -86,53 +444,67 @@ object DataLoadHelper {
     }
 
 
-    //硬盘或者网络获取，
-    @Synchronized
-    private fun loadPagByDisk(src: String, addPag: (ByteArray?, String) -> Unit) {
+    //硬盘或者网络获取，同一key由inFlightLoads保证不会并发进入
+    private fun loadPagByDisk(src: String, isCancelled: () -> Boolean, onProgress: (Long, Long) -> Unit): LoadResult {
         //从硬盘缓存中获取
 
         var errorMsg = ""
         val key = hashKeyForDisk(src)
         var snapShot: DiskLruCache.Snapshot? = null
+        var bytes: ByteArray? = null
+        var path: String? = null
+        var source = SOURCE_DISK
+        //no-store的响应不进入内存缓存
+        var store = true
+        val cache = awaitDiskCache()
         try {
-            snapShot = diskCache?.get(key)
+            snapShot = cache?.get(key)
             if (snapShot == null) {
                 Log.d(TAG, "loadPag load from network")
-                //没有，进行网络操作
-                val editor = diskCache?.edit(key)
-                if (editor != null) {
-                    val outputStream = editor.newOutputStream(0)
-                    if (downloadUrlToStream(src, outputStream)) {
-                        editor.commit()
+                source = SOURCE_NETWORK
+                //没有，进行网络操作，写入硬盘的同时保留一份在内存中，无需再次读盘
+                val fetch = fetch(src, key, cache, null, isCancelled, onProgress)
+                bytes = fetch.bytes
+                path = fetch.path
+                store = !fetch.noStore
+            } else {
+                val meta = readMeta(key, snapShot)
+                if (meta != null && meta.isExpired()) {
+                    if (staleWhileRevalidate) {
+                        //先使用过期的缓存，后台校验更新
+                        scheduleRevalidate(src, key)
                     } else {
-                        editor.abort()
+                        Log.d(TAG, "loadPag revalidate")
+                        source = SOURCE_NETWORK
+                        val fetch = fetch(src, key, cache, meta, isCancelled, onProgress)
+                        if (fetch.success && !fetch.notModified) {
+                            snapShot.close()
+                            snapShot = null
+                            bytes = fetch.bytes
+                            path = fetch.path
+                            store = !fetch.noStore
+                        }
+                        //304或校验失败时继续使用硬盘缓存
                     }
                 }
-                //存入硬盘后再次读取
-                diskCache?.flush()
-                snapShot = diskCache?.get(key)
             }
         } catch (e: IOException) {
             Log.e(TAG, "loadPag load from network erro: $e")
             errorMsg = "loadPag load from network error: $e"
         }
 
-        //进行bytes读取
-        var bytes: ByteArray? = null
-        if (snapShot != null) {
+        //进行bytes读取，大文件只返回路径
+        if (bytes == null && path == null && snapShot != null) {
             Log.d(TAG, "loadPag load from snapShot")
             try {
-                val inputStream = snapShot.getInputStream(0)
-                val outputStrem = ByteArrayOutputStream()
-                inputStream.use { ins ->
-                    outputStrem.use { bos ->
-                        val buffer = ByteArray(1024)
-                        var len: Int
-
-                        while (ins.read(buffer).also { len = it } != -1) {
-                            bos.write(buffer, 0, len)
-                        }
-                        bytes = bos.toByteArray()
+                val length = snapShot.getLength(0)
+                if (length >= fileLoadThreshold && diskCacheDir != null) {
+                    path = entryFilePath(key)
+                } else {
+                    snapShot.getInputStream(0).use { ins ->
+                        val bos = PresizedOutputStream(length.toInt())
+                        copyStream(ins, bos, null, isCancelled)
+                        bytes = bos.bytes()
                     }
                 }
             } catch (e: IOException) {
@@ -141,45 +513,479 @@ object DataLoadHelper {
                 errorMsg = "loadPag load from network error: $e"
             }
         }
+        snapShot?.close()
 
-        Log.d(TAG, "loadPag bytes size: ${bytes?.size}")
+        Log.d(TAG, "loadPag bytes size: ${bytes?.size}, path: $path")
         //存储进内存缓存
-        if (bytes != null && bytes!!.isNotEmpty() && memoryCache.get(key) == null) {
+        if (bytes != null && bytes!!.isNotEmpty() && store) {
             memoryCache.put(key, bytes)
         }
-        addPag(bytes, errorMsg)
+        return LoadResult(bytes, path, errorMsg, source)
     }
 
+    //后台校验过期条目，同一key同时只有一个校验；内容有更新时替换内存缓存
+    private fun scheduleRevalidate(src: String, key: String?) {
+        if (key == null || !revalidatingKeys.add(key)) {
+            return
+        }
+        ioExecutor.execute {
+            try {
+                val cache = awaitDiskCache()
+                val meta = try {
+                    cache?.get(key)?.use { readMeta(key, it) }
+                } catch (e: IOException) {
+                    null
+                }
+                val fetch = fetch(src, key, cache, meta, { false })
+                if (fetch.success && !fetch.notModified) {
+                    val bytes = fetch.bytes
+                    if (bytes != null && bytes.isNotEmpty() && !fetch.noStore) {
+                        memoryCache.put(key, bytes)
+                    } else {
+                        memoryCache.remove(key)
+                    }
+                }
+            } catch (e: RuntimeException) {
+                Log.e(TAG, "revalidate error: $e")
+            } finally {
+                revalidatingKeys.remove(key)
+            }
+        }
+    }
+
+    //读取条目的校验信息，同时记录过期时间供内存缓存判断
+    private fun readMeta(key: String?, snapShot: DiskLruCache.Snapshot): CacheMeta? {
+        val meta = try {
+            CacheMeta.decode(snapShot.getString(1))
+        } catch (e: IOException) {
+            null
+        }
+        if (key != null && meta != null) {
+            recordExpiry(key, meta)
+        }
+        return meta
+    }
 
-    //下载
-    private fun downloadUrlToStream(urlString: String, outputStream: OutputStream): Boolean {
+    //304时只更新条目的校验信息，body保持不变
+    private fun writeMeta(cache: DiskLruCache?, key: String?, meta: CacheMeta) {
+        if (key == null) {
+            return
+        }
+        recordExpiry(key, meta)
+        val editor = cache?.edit(key) ?: return
+        try {
+            editor.set(1, meta.encode())
+            editor.commit()
+            cache?.flush()
+        } catch (e: IOException) {
+            Log.e(TAG, "writeMeta error: $e")
+            editor.abortUnlessCommitted()
+        }
+    }
+
+    private fun recordExpiry(key: String, meta: CacheMeta) {
+        if (meta.expiresAt == Long.MAX_VALUE) {
+            expiries.remove(key)
+        } else {
+            expiries[key] = meta.expiresAt
+        }
+    }
+
+    //内存缓存中的数据是否已过期
+    private fun isExpired(key: String): Boolean {
+        val expiresAt = expiries[key] ?: return false
+        return System.currentTimeMillis() >= expiresAt
+    }
+
+    //经snapshot读取硬盘缓存中的数据，不依赖缓存文件路径
+    private fun readCachedBytes(src: String): ByteArray? {
+        val key = hashKeyForDisk(src) ?: return null
+        return try {
+            awaitDiskCache()?.get(key)?.use { snapShot ->
+                snapShot.getInputStream(0).use { ins ->
+                    val bos = PresizedOutputStream(snapShot.getLength(0).toInt())
+                    copyStream(ins, bos, null, { false })
+                    bos.bytes()
+                }
+            }
+        } catch (e: IOException) {
+            Log.e(TAG, "readCachedBytes error: $e")
+            null
+        }
+    }
+
+    //DiskLruCache中key对应的缓存文件
+    private fun entryFilePath(key: String?): String {
+        return entryFile(key, false).path
+    }
+
+    //依赖DiskLruCache 2.0.2的文件命名：条目第0个值为"$key.0"，编辑中为"$key.0.tmp"，commit时重命名替换
+    //升级DiskLruCache需核对此处，entryFilePath与installPartial均经由此处
+    private fun entryFile(key: String?, dirty: Boolean): File {
+        return File(diskCacheDir, if (dirty) "$key.0.tmp" else "$key.0")
+    }
+
+    private fun readFileBytes(path: String): ByteArray? {
+        return try {
+            File(path).readBytes()
+        } catch (e: IOException) {
+            Log.e(TAG, "readFileBytes error: $e")
+            null
+        }
+    }
+
+
+    //下载并写入硬盘缓存（body和校验信息），validators不为空时发送条件请求，304时只更新校验信息
+    //网络错误及5xx时按指数退避重试，已下载的部分保留在partial文件中续传
+    private fun fetch(
+        src: String, key: String?, cache: DiskLruCache?, validators: CacheMeta?,
+        isCancelled: () -> Boolean, onProgress: (Long, Long) -> Unit = { _, _ -> }
+    ): Fetch {
+        var attempt = 0
+        while (true) {
+            val fetch = fetchOnce(src, key, cache, validators, isCancelled, onProgress)
+            if (fetch.success && !fetch.notModified) {
+                invalidationListeners.forEach { it(src) }
+            }
+            if (fetch.success || !fetch.retryable || attempt >= MAX_RETRY || !backoff(attempt, isCancelled)) {
+                return fetch
+            }
+            attempt++
+            Log.d(TAG, "loadPag retry $attempt: $src")
+        }
+    }
+
+    //单次请求；写入硬盘缓存时先下载到partial文件，完成后移入DiskLruCache条目
+    //无法写入硬盘缓存或文件小于fileLoadThreshold时同时保留在内存中，否则返回缓存文件路径
+    private fun fetchOnce(
+        src: String, key: String?, cache: DiskLruCache?, validators: CacheMeta?,
+        isCancelled: () -> Boolean, onProgress: (Long, Long) -> Unit
+    ): Fetch {
         var urlConnection: HttpURLConnection? = null
-        var outStream: BufferedOutputStream? = null
-        var inStream: BufferedInputStream? = null
+        var editor: DiskLruCache.Editor? = null
+        //同一条目同时只允许一个请求写partial文件
+        val partial = if (key != null && cache != null && activePartials.add(key)) partialFile(key) else null
         try {
-            val url = URL(urlString)
-            urlConnection = url.openConnection() as HttpURLConnection
-            inStream = BufferedInputStream(urlConnection.inputStream, 8 * 1024)
-            outStream = BufferedOutputStream(outputStream, 8 * 1024)
-            var b: Int
-            while (inStream.read().also { b = it } != -1) {
-                outStream.write(b)
+            //只有记录了校验字段才能确认续传的是同一份内容
+            val rangeValidator = partial?.let { readRangeValidator(it) }
+            val offset = if (partial != null && rangeValidator != null) partial.length() else 0L
+            val connection = URL(src).openConnection() as HttpURLConnection
+            urlConnection = connection
+            validators?.etag?.let { connection.setRequestProperty("If-None-Match", it) }
+            validators?.lastModified?.let { connection.setRequestProperty("If-Modified-Since", it) }
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=$offset-")
+                connection.setRequestProperty("If-Range", rangeValidator)
+            }
+            val code = connection.responseCode
+            val meta = responseMeta(connection, validators)
+            if (validators != null && code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.d(TAG, "loadPag not modified")
+                if (meta.noStore) {
+                    key?.let { recordExpiry(it, meta) }
+                } else {
+                    writeMeta(cache, key, meta)
+                }
+                return Fetch(true, true, null, null)
+            }
+            if (code == HTTP_RANGE_NOT_SATISFIABLE && partial != null) {
+                //已下载的部分失效，删除后重新下载
+                deletePartial(partial)
+                return Fetch(false, false, null, null, true)
+            }
+            if (code >= 400) {
+                Log.e(TAG, "loadPag http error: $code")
+                return Fetch(false, false, null, null, code >= 500 || code == 408 || code == 429)
+            }
+            val resumed = offset > 0 && code == HttpURLConnection.HTTP_PARTIAL
+            val contentLength = connection.getHeaderField("Content-Length")?.toLongOrNull() ?: -1L
+            val loaded = if (resumed) offset else 0L
+            val total = if (contentLength >= 0) loaded + contentLength else -1L
+            val progress = ProgressReporter(loaded, total, onProgress)
+
+            if (meta.noStore && partial != null) {
+                //不写硬盘，已下载的部分也不再续传
+                deletePartial(partial)
+                if (resumed) {
+                    return Fetch(false, false, null, null, true)
+                }
+            }
+            if (partial == null || meta.noStore) {
+                val body = PresizedOutputStream(contentLength.toInt())
+                connection.inputStream.use { copyStream(it, body, null, isCancelled, progress::onChunk) }
+                if (meta.noStore && key != null) {
+                    //移除之前缓存的旧内容
+                    recordExpiry(key, meta)
+                    try {
+                        cache?.remove(key)
+                    } catch (e: IOException) {
+                        Log.e(TAG, "remove no-store entry error: $e")
+                    }
+                }
+                return Fetch(true, false, body.bytes(), null, noStore = meta.noStore)
+            }
+            if (!resumed) {
+                //重新开始下载，记录本次内容的校验字段
+                writeRangeValidator(partial, meta)
+            } else {
+                Log.d(TAG, "loadPag resume from $offset")
+            }
+            val body = if (!resumed && contentLength in 0 until fileLoadThreshold) {
+                PresizedOutputStream(contentLength.toInt())
+            } else {
+                null
+            }
+            connection.inputStream.use { ins ->
+                FileOutputStream(partial, resumed).use { copyStream(ins, it, body, isCancelled, progress::onChunk) }
+            }
+
+            val downloaded = body?.bytes()
+            val edit = cache?.edit(key)
+            if (edit == null) {
+                //条目正在被其他请求写入，本次只返回数据
+                val bytes = downloaded ?: readFileBytes(partial.path)
+                deletePartial(partial)
+                return Fetch(bytes != null, false, bytes, null)
+            }
+            editor = edit
+            installPartial(edit, key, partial)
+            edit.set(1, meta.encode())
+            edit.commit()
+            cache?.flush()
+            deletePartial(partial)
+            key?.let { recordExpiry(it, meta) }
+            return if (downloaded != null && downloaded.size < fileLoadThreshold) {
+                Fetch(true, false, downloaded, null)
+            } else {
+                Fetch(true, false, null, entryFilePath(key))
             }
-            return true
         } catch (e: IOException) {
             e.printStackTrace()
-        } finally {
-            urlConnection?.disconnect()
             try {
-                outStream?.close()
-                inStream?.close()
+                editor?.abortUnlessCommitted()
             } catch (e: IOException) {
                 e.printStackTrace()
             }
+            //取消时不重试，partial文件保留供下次续传
+            return Fetch(false, false, null, null, !isCancelled())
+        } finally {
+            urlConnection?.disconnect()
+            if (partial != null && key != null) {
+                activePartials.remove(key)
+            }
+        }
+    }
+
+    //退避等待，等待期间被取消返回false
+    private fun backoff(attempt: Int, isCancelled: () -> Boolean): Boolean {
+        val delay = min(retryBaseDelayMs shl attempt, RETRY_MAX_DELAY_MS)
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)
+        while (!isCancelled()) {
+            val remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())
+            if (remaining <= 0) {
+                return true
+            }
+            try {
+                Thread.sleep(min(remaining, RETRY_CHECK_INTERVAL_MS))
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                return false
+            }
         }
         return false
     }
 
+    private fun partialFile(key: String): File? {
+        val dir = partialDir ?: return null
+        return File(dir, "$key.partial")
+    }
+
+    //If-Range只接受强校验的ETag，否则使用Last-Modified
+    private fun writeRangeValidator(partial: File, meta: CacheMeta) {
+        val etag = meta.etag
+        val validator = if (etag != null && !etag.startsWith("W/")) etag else meta.lastModified
+        val validatorFile = File(partial.path + ".validator")
+        try {
+            FileOutputStream(partial).close()
+            if (validator != null) {
+                validatorFile.writeText(validator)
+            } else {
+                validatorFile.delete()
+            }
+        } catch (e: IOException) {
+            Log.e(TAG, "writeRangeValidator error: $e")
+            validatorFile.delete()
+        }
+    }
+
+    private fun readRangeValidator(partial: File): String? {
+        val validatorFile = File(partial.path + ".validator")
+        if (!partial.exists() || !validatorFile.exists()) {
+            return null
+        }
+        return try {
+            validatorFile.readText().ifEmpty { null }
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    private fun deletePartial(partial: File) {
+        partial.delete()
+        File(partial.path + ".validator").delete()
+    }
+
+    //下载完成的partial文件直接重命名为条目的dirty文件，由commit完成替换，避免再写一遍；重命名失败时通过editor拷贝
+    private fun installPartial(editor: DiskLruCache.Editor, key: String?, partial: File) {
+        //先打开一次输出流，标记该值已写入并创建dirty文件
+        editor.newOutputStream(0).close()
+        if (!partial.renameTo(entryFile(key, true))) {
+            FileInputStream(partial).use { ins ->
+                editor.newOutputStream(0).use { copyStream(ins, it, null, { false }) }
+            }
+        }
+    }
+
+    //清理长时间未续传的partial文件
+    private fun trimPartials(dir: File) {
+        val deadline = System.currentTimeMillis() - PARTIAL_MAX_AGE_MS
+        dir.listFiles()?.forEach {
+            if (it.lastModified() < deadline) {
+                it.delete()
+            }
+        }
+    }
+
+    //根据Cache-Control/Expires计算过期时间，都没有时使用defaultMaxAgeMs；304响应可能不带校验字段，沿用原有值
+    private fun responseMeta(connection: HttpURLConnection, previous: CacheMeta?): CacheMeta {
+        val now = System.currentTimeMillis()
+        var maxAge: Long? = null
+        var noCache = false
+        var noStore = false
+        connection.getHeaderField("Cache-Control")?.split(',')?.forEach { directive ->
+            val value = directive.trim().lowercase(Locale.US)
+            if (value == "no-cache") {
+                noCache = true
+            } else if (value == "no-store") {
+                noStore = true
+            } else if (value.startsWith("max-age=")) {
+                maxAge = value.substring("max-age=".length).trim('"', ' ').toLongOrNull()
+            }
+        }
+        val expiration = connection.expiration
+        val defaultMaxAge = defaultMaxAgeMs
+        val expiresAt = when {
+            noCache || noStore -> now
+            maxAge != null -> now + maxAge!! * 1000
+            expiration > 0 -> expiration
+            //Expires为0或无法解析的日期表示已过期
+            connection.getHeaderField("Expires") != null -> now
+            defaultMaxAge >= 0 -> now + defaultMaxAge
+            else -> Long.MAX_VALUE
+        }
+        return CacheMeta(
+            connection.getHeaderField("ETag") ?: previous?.etag,
+            connection.getHeaderField("Last-Modified") ?: previous?.lastModified,
+            expiresAt,
+            noStore
+        )
+    }
+
+    //按块拷贝，tee不为空时同时写入；取消时抛出IOException中断
+    private fun copyStream(
+        input: InputStream, output: OutputStream, tee: OutputStream?,
+        isCancelled: () -> Boolean, onChunk: ((Int) -> Unit)? = null
+    ) {
+        val buffer = ByteArray(COPY_BUFFER_SIZE)
+        var len: Int
+        while (input.read(buffer).also { len = it } != -1) {
+            if (isCancelled()) {
+                throw IOException("load cancelled")
+            }
+            output.write(buffer, 0, len)
+            tee?.write(buffer, 0, len)
+            onChunk?.invoke(len)
+        }
+    }
+
+    //加载结果，bytes和path至多一个不为空
+    private class LoadResult(val bytes: ByteArray?, val path: String?, val errorMsg: String, val source: Int = SOURCE_NONE)
+
+    //网络请求结果，notModified表示304，继续使用硬盘缓存；noStore表示不缓存的响应
+    private class Fetch(
+        val success: Boolean, val notModified: Boolean, val bytes: ByteArray?, val path: String?,
+        val retryable: Boolean = false, val noStore: Boolean = false
+    )
+
+    //下载进度，按时间间隔节流，下载完成时总会回调一次
+    private class ProgressReporter(private var loaded: Long, private val total: Long, private val report: (Long, Long) -> Unit) {
+        private var lastReportTime = 0L
+
+        fun onChunk(length: Int) {
+            loaded += length
+            val now = SystemClock.uptimeMillis()
+            if (now - lastReportTime >= PROGRESS_INTERVAL_MS || loaded == total) {
+                lastReportTime = now
+                report(loaded, total)
+            }
+        }
+    }
+
+    //硬盘缓存条目的校验信息，存储在条目的value 1；expiresAt为Long.MAX_VALUE表示不过期
+    //noStore只用于本次响应，不写入硬盘
+    private class CacheMeta(val etag: String?, val lastModified: String?, val expiresAt: Long, val noStore: Boolean = false) {
+        fun isExpired(): Boolean = System.currentTimeMillis() >= expiresAt
+
+        fun encode(): String = "${etag ?: ""}\n${lastModified ?: ""}\n$expiresAt"
+
+        companion object {
+            fun decode(text: String?): CacheMeta? {
+                val lines = text?.split('\n') ?: return null
+                if (lines.size < 3) {
+                    return null
+                }
+                return CacheMeta(lines[0].ifEmpty { null }, lines[1].ifEmpty { null }, lines[2].toLongOrNull() ?: 0L)
+            }
+        }
+    }
+
+    //同一key的进行中加载
+    private class InFlightLoad {
+        val callbacks = mutableListOf<(LoadResult) -> Unit>()
+
+        // 可能同时提交到两个线程池，只执行一次
+        val started = AtomicBoolean(false)
+
+        // 已提交到ioExecutor，在inFlightLoads锁内读写
+        var promoted = false
+
+        // 在backgroundExecutor中排队的最高优先级，在inFlightLoads锁内读写
+        var priority = 0
+
+        @Volatile
+        var cancelled = false
+    }
+
+    //backgroundExecutor中的任务，priority大的先执行，相同时按提交顺序
+    private class PrioritizedRunnable(
+        private val priority: Int, private val sequence: Long, private val task: Runnable
+    ) : Runnable, Comparable<PrioritizedRunnable> {
+        override fun run() = task.run()
+
+        override fun compareTo(other: PrioritizedRunnable): Int {
+            if (priority != other.priority) {
+                return other.priority.compareTo(priority)
+            }
+            return sequence.compareTo(other.sequence)
+        }
+    }
+
+    //按已知长度预分配，长度一致时直接返回内部数组，避免toByteArray再拷贝一次
+    private class PresizedOutputStream(expectedSize: Int) :
+        ByteArrayOutputStream(if (expectedSize > 0) expectedSize else COPY_BUFFER_SIZE) {
+        fun bytes(): ByteArray = if (count == buf.size) buf else toByteArray()
+    }
+
     //使用MD5算法对传入的key进行加密并返回
     private fun hashKeyForDisk(key: String): String? {
         return try {
@@ -199,6 +1005,15 @@ object DataLoadHelper {
     fun removeLoadListener(loadListener: ILoadListener) {
         loadListeners.remove(loadListener)
     }
+
+    //下载到新内容（200）时回调，参数为url，在IO线程中调用
+    fun addInvalidationListener(listener: (String) -> Unit) {
+        invalidationListeners.addIfAbsent(listener)
+    }
+
+    fun removeInvalidationListener(listener: (String) -> Unit) {
+        invalidationListeners.remove(listener)
+    }
 }
 
 // 用于监听PAG加载情况
@@ -206,5 +1021,52 @@ interface ILoadListener {
 
     fun loadStart(url: String, from: Int)
 
-    fun loadComplete(url: String, result: ByteArray?/*result为空则失败*/, useTime: Long, errorMsg: String, from: Int)
-}
\ No newline at end of file
+    // result为null则失败；文件超过fileLoadThreshold时按路径加载，result为空数组，表示成功但数据不经过内存
+    fun loadComplete(url: String, result: ByteArray?, useTime: Long, errorMsg: String, from: Int)
+}
+
+// 需要下载进度时实现此接口，addLoadListener注册后回调；单独定义，已有的ILoadListener实现（包括Java）无需改动
+interface ILoadProgressListener : ILoadListener {
+
+    // 网络下载进度，total未知时为-1；续传时loaded包含之前已下载的部分
+    fun loadProgress(url: String, loaded: Long, total: Long, from: Int)
+}
+
+// 可取消的加载请求，取消后不再回调；同一url的请求全部取消时中断下载
+class LoadTask internal constructor(val info: LoadInfo, private val onCancel: () -> Unit) {
+    @Volatile
+    var isCancelled = false
+        private set
+
+    fun cancel() {
+        synchronized(this) {
+            if (isCancelled) {
+                return
+            }
+            isCancelled = true
+        }
+        onCancel()
+    }
+}
+
+// 单次加载的来源及各阶段耗时，在回调前写入
+class LoadInfo internal constructor() {
+    @Volatile
+    var source = DataLoadHelper.SOURCE_NONE
+        internal set
+
+    // 从请求到拿到数据的耗时，包含排队等待
+    @Volatile
+    var loadNanos = 0L
+        internal set
+
+    // PAGFile解析耗时，仅loadPagFile
+    @Volatile
+    var parseNanos = 0L
+        internal set
+
+    // 源文件字节数，仅loadPagFile，用于估算解析结果占用
+    @Volatile
+    var sourceBytes = 0L
+        internal set
+}
@@ -1,57 +1,143 @@
 package com.example.flutter_pag_plugin;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.ValueAnimator;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
-import android.view.animation.LinearInterpolator;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
 
+import org.libpag.PAGComposition;
 import org.libpag.PAGFile;
+import org.libpag.PAGLayer;
 import org.libpag.PAGPlayer;
 import org.libpag.PAGSurface;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.flutter.plugin.common.MethodChannel;
 
 
 public class FlutterPagPlayer extends PAGPlayer {
+    private static final String TAG = "FlutterPagPlayer";
+    private static final long FRAME_TOLERANCE_NANOS = 1000000;
+    private static final int HIT_TEST_CACHE_SIZE = 16;
 
-    private final ValueAnimator animator = ValueAnimator.ofFloat(0.0F, 1.0F);
-    private boolean isRelease;
-    private long currentPlayTime = 0L;
+    // 点击测试结果，在渲染线程中回调
+    interface HitTestCallback {
+        void onResult(List<String> layerNames);
+    }
+
+    private volatile boolean isRelease;
+    // 每个纹理最多一个执行中和一个待执行的flush，待执行的flush渲染最新进度，中间进度直接丢弃
+    private final AtomicBoolean flushPending = new AtomicBoolean(false);
+    private volatile double renderProgress = 0;
+    private final AtomicLong skippedFrames = new AtomicLong();
+    private final RenderLane lane = new RenderLane();
+    // 可见的纹理优先渲染，不可见时暂停推进与渲染
+    private volatile boolean visible = true;
+    // 不可见期间有未渲染的进度，恢复可见时补一次flush
+    private volatile boolean dirtyWhileHidden;
+    // 播放状态，由PagFrameClock在主线程推进
+    private boolean playing;
+    private long durationMs;
+    // 播放次数，<=0为无限循环
+    private int repeatCount;
+    private int currentRepeat;
+    // 从第一次循环开始累计的播放时长
+    private double playTimeMs;
+    private long lastFrameTimeNanos = -1;
     private double progress = 0;
     private double initProgress = 0;
+    // 帧率上限，<=0时使用composition自身帧率
+    private float maxFps;
+    private volatile float compositionFrameRate;
+    // 上一次渲染对应的理想时间点，用于按帧率均匀跳过vsync
+    private long lastRenderFrameNanos = -1;
+    // 因帧率上限跳过的vsync数
+    private volatile long cappedFrames;
+    // composition总帧数，<=0时不按帧号判断
+    private long totalFrames;
+    // 最近一次提交渲染的帧号
+    private long lastFrameIndex = -1;
+    // 帧号未变化而跳过的渲染数
+    private volatile long unchangedFrames;
     private SurfaceTexture surfaceTexture;
+    // 当前SurfaceTexture的buffer尺寸
+    private volatile int bufferWidth;
+    private volatile int bufferHeight;
+    // 帧缓存模式：不创建PAGSurface，通过Canvas把PagFrameCache中的帧绘制到Surface
+    private volatile Surface canvasSurface;
+    private volatile String frameCacheKey;
+    // 以下仅在post的任务中访问
+    private PAGFile frameCacheFile;
+    private PagFrameCache.FrameSequence frameSequence;
+    private final Rect frameRect = new Rect();
+    private final Paint framePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    // 最近一次渲染的进度，点击测试按该帧计算
+    private double renderedProgress;
+    // 当前帧的点击测试结果，key为取整后的坐标，帧变化时清空
+    private long hitTestFrame = Long.MIN_VALUE;
+    private final LinkedHashMap<Long, List<String>> hitTestCache = new LinkedHashMap<Long, List<String>>(HIT_TEST_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, List<String>> eldest) {
+            return size() > HIT_TEST_CACHE_SIZE;
+        }
+    };
 
     private MethodChannel channel;
     private long textureId;
+    // 当前composition在PagCompositionCache中的key，仅在主线程访问
+    private String compositionKey;
 
 
     public FlutterPagPlayer() {
         super();
-        animator.setInterpolator(new LinearInterpolator());
-        animator.addUpdateListener(animatorUpdateListener);
-        animator.addListener(animatorListenerAdapter);
     }
 
     public boolean isRelease() {
         return isRelease;
     }
 
+    String getCompositionKey() {
+        return compositionKey;
+    }
+
+    void setCompositionKey(String compositionKey) {
+        this.compositionKey = compositionKey;
+    }
+
+    // 需在post的任务中调用
     public void init(PAGFile file, int repeatCount, double initProgress, MethodChannel channel, long textureId) {
-        if (WorkThreadExecutor.multiThread) {
-            synchronized (this) {
-                setComposition(file);
-            }
-        } else {
-            setComposition(file);
-        }
+        setComposition(file);
 
         this.channel = channel;
         this.textureId = textureId;
+        skippedFrames.set(0);
+        cappedFrames = 0;
+        unchangedFrames = 0;
+        // 复用的播放器恢复为可见
+        visible = true;
+        compositionFrameRate = file == null ? 0 : file.frameRate();
+        if (canvasSurface != null) {
+            frameCacheFile = file;
+            acquireFrameSequence();
+        }
         progress = initProgress;
         this.initProgress = initProgress;
+        renderedProgress = initProgress;
+        clearHitTestCache();
         initAnimator(repeatCount);
     }
 
@@ -60,24 +146,135 @@ public class FlutterPagPlayer extends PAGPlayer {
     }
 
     private void initAnimator(int repeatCount) {
-        animator.setDuration(duration() / 1000L);
-        if (repeatCount < 0) {
-            repeatCount = 0;
-        }
-        animator.setRepeatCount(repeatCount - 1);
+        playing = false;
+        durationMs = duration() / 1000L;
+        totalFrames = Math.round(durationMs / 1000.0 * compositionFrameRate);
+        this.repeatCount = Math.max(repeatCount, 0);
         setProgressValue(initProgress);
     }
 
     public void setProgressValue(double value) {
         this.progress = Math.max(0.0D, Math.min(value, 1.0D));
-        this.currentPlayTime = (long) (progress * (double) this.animator.getDuration());
-        this.animator.setCurrentPlayTime(currentPlayTime);
-        setProgress(progress);
+        this.currentRepeat = 0;
+        this.playTimeMs = progress * durationMs;
+        this.lastFrameTimeNanos = -1;
+        renderProgress = progress;
+        lastFrameIndex = frameIndex(progress);
         flush();
     }
 
+    // 与libpag一致按进度向下取整得到帧号
+    private long frameIndex(double progress) {
+        if (totalFrames <= 0) {
+            return -1;
+        }
+        return Math.min(totalFrames - 1, (long) Math.floor(progress * totalFrames));
+    }
+
     public void start() {
-        animator.start();
+        if (playing || isRelease) {
+            return;
+        }
+        // 播放结束后再次start从头开始
+        if (repeatCount > 0 && playTimeMs >= (double) repeatCount * durationMs) {
+            currentRepeat = 0;
+            playTimeMs = 0;
+        }
+        playing = true;
+        lastFrameTimeNanos = -1;
+        notifyEvent(FlutterPagPlugin._eventStart);
+        if (visible) {
+            PagFrameClock.getInstance().add(this);
+        }
+    }
+
+    // 时钟暂停后恢复时调用，避免把暂停期间的时长计入播放进度
+    void resetFrameTime() {
+        lastFrameTimeNanos = -1;
+    }
+
+    // 由PagFrameClock每帧调用，返回true表示需要渲染
+    boolean advance(long frameTimeNanos) {
+        if (!playing) {
+            return false;
+        }
+        if (lastFrameTimeNanos < 0 || durationMs <= 0) {
+            lastFrameTimeNanos = frameTimeNanos;
+            lastRenderFrameNanos = -1;
+            return false;
+        }
+        playTimeMs += (frameTimeNanos - lastFrameTimeNanos) / 1000000.0;
+        lastFrameTimeNanos = frameTimeNanos;
+
+        int repeat = (int) (playTimeMs / durationMs);
+        if (repeatCount > 0 && repeat >= repeatCount) {
+            playTimeMs = (double) repeatCount * durationMs;
+            progress = 1.0D;
+            playing = false;
+            PagFrameClock.getInstance().remove(this);
+            renderProgress = progress;
+            notifyEvent(FlutterPagPlugin._eventEnd);
+            return true;
+        }
+        if (repeat > currentRepeat) {
+            currentRepeat = repeat;
+            notifyEvent(FlutterPagPlugin._eventRepeat);
+        }
+        progress = (playTimeMs - (double) repeat * durationMs) / durationMs;
+        // 帧号不变时画面不变，跳过setProgress和flush
+        long frame = frameIndex(progress);
+        if (frame >= 0 && frame == lastFrameIndex) {
+            unchangedFrames++;
+            return false;
+        }
+        if (!reachFrameInterval(frameTimeNanos)) {
+            cappedFrames++;
+            return false;
+        }
+        lastFrameIndex = frame;
+        renderProgress = progress;
+        return true;
+    }
+
+    private boolean reachFrameInterval(long frameTimeNanos) {
+        float fps = effectiveFps();
+        if (fps <= 0 || lastRenderFrameNanos < 0) {
+            lastRenderFrameNanos = frameTimeNanos;
+            return true;
+        }
+        long interval = (long) (1e9 / fps);
+        long elapsed = frameTimeNanos - lastRenderFrameNanos;
+        // 允许少量vsync抖动
+        if (elapsed < interval - FRAME_TOLERANCE_NANOS) {
+            return false;
+        }
+        // 按理想时间点累加，保证低于刷新率的帧率均匀分布；落后过多时重新对齐
+        lastRenderFrameNanos = elapsed >= interval * 2 ? frameTimeNanos : lastRenderFrameNanos + interval;
+        return true;
+    }
+
+    // 取自身帧率上限与全局预算中较小的值
+    float effectiveFps() {
+        float fps = maxFps > 0 ? maxFps : compositionFrameRate;
+        float budgetFps = PagFrameClock.getInstance().budgetFps();
+        if (budgetFps > 0 && (fps <= 0 || budgetFps < fps)) {
+            fps = budgetFps;
+        }
+        return fps;
+    }
+
+    // 仅在主线程调用
+    public void setMaxFps(float maxFps) {
+        this.maxFps = maxFps;
+        lastRenderFrameNanos = -1;
+    }
+
+    long getCappedFrames() {
+        return cappedFrames;
+    }
+
+    long getUnchangedFrames() {
+        return unchangedFrames;
     }
 
     public void stop() {
@@ -90,71 +287,208 @@ public class FlutterPagPlayer extends PAGPlayer {
         super.setSurface(pagSurface);
     }
 
+    // 不可见时移出帧时钟，恢复可见后从暂停时的进度继续播放
+    public void setVisible(boolean visible) {
+        if (this.visible == visible) {
+            return;
+        }
+        this.visible = visible;
+        if (isRelease) {
+            return;
+        }
+        if (visible) {
+            if (playing) {
+                lastFrameTimeNanos = -1;
+                PagFrameClock.getInstance().add(this);
+            }
+            if (dirtyWhileHidden) {
+                dirtyWhileHidden = false;
+                flush();
+            }
+        } else {
+            PagFrameClock.getInstance().remove(this);
+        }
+    }
+
     public void setSurfaceTexture(SurfaceTexture surfaceTexture) {
         this.surfaceTexture = surfaceTexture;
     }
 
+    // 开启帧缓存模式，需在创建纹理后、init之前调用，该模式的纹理不进入复用池
+    void enableFrameCache(Surface surface, String compositionKey) {
+        this.canvasSurface = surface;
+        this.frameCacheKey = compositionKey;
+    }
+
+    boolean isFrameCacheEnabled() {
+        return canvasSurface != null;
+    }
+
+    // 按当前composition和buffer尺寸获取帧序列
+    private void acquireFrameSequence() {
+        releaseFrameSequence();
+        if (frameCacheFile == null || frameCacheKey == null || bufferWidth <= 0 || bufferHeight <= 0) {
+            return;
+        }
+        frameSequence = PagFrameCache.getInstance().acquire(frameCacheKey, frameCacheFile, bufferWidth, bufferHeight);
+        if (frameSequence == null) {
+            Log.e(TAG, "create frame sequence failed: " + frameCacheKey);
+        }
+    }
+
+    private void releaseFrameSequence() {
+        if (frameSequence != null) {
+            PagFrameCache.getInstance().release(frameSequence);
+            frameSequence = null;
+        }
+    }
+
+    private void drawCachedFrame(double progress) {
+        if (frameSequence == null) {
+            return;
+        }
+        Bitmap frame = frameSequence.frameAt(frameSequence.frameIndex(progress));
+        if (frame == null) {
+            return;
+        }
+        Canvas canvas = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                ? canvasSurface.lockHardwareCanvas() : canvasSurface.lockCanvas(null);
+        if (canvas == null) {
+            return;
+        }
+        try {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            frameRect.set(0, 0, bufferWidth, bufferHeight);
+            canvas.drawBitmap(frame, null, frameRect, framePaint);
+        } finally {
+            canvasSurface.unlockCanvasAndPost(canvas);
+        }
+    }
+
+    // 在渲染线程中按当前显示的帧做点击测试，避免与渲染任务并发访问播放器；同一帧相同位置的结果直接复用
+    public void hitTest(final float x, final float y, final HitTestCallback callback) {
+        post(() -> {
+            if (isRelease || getComposition() == null) {
+                callback.onResult(Collections.<String>emptyList());
+                return;
+            }
+            long frame = frameIndex(renderedProgress);
+            long frameKey = frame >= 0 ? frame : Double.doubleToLongBits(renderedProgress);
+            if (frameKey != hitTestFrame) {
+                hitTestCache.clear();
+                hitTestFrame = frameKey;
+            }
+            long pointKey = ((long) Math.round(x) << 32) | (Math.round(y) & 0xffffffffL);
+            List<String> layerNames = hitTestCache.get(pointKey);
+            if (layerNames == null) {
+                // 帧缓存模式下渲染不经过composition，先同步进度
+                if (canvasSurface != null) {
+                    setProgress(renderedProgress);
+                }
+                PAGLayer[] layers = layersUnderCompositionPoint(x, y);
+                List<String> names = new ArrayList<>(layers == null ? 0 : layers.length);
+                if (layers != null) {
+                    for (PAGLayer layer : layers) {
+                        names.add(layer.layerName());
+                    }
+                }
+                layerNames = Collections.unmodifiableList(names);
+                hitTestCache.put(pointKey, layerNames);
+            }
+            callback.onResult(layerNames);
+        });
+    }
+
+    // 传入的坐标为composition坐标，libpag按PAGSurface的像素坐标计算
+    // 普通模式的PAGSurface为buffer尺寸（可能按显示尺寸缩放），需换算到buffer坐标；帧缓存模式没有PAGSurface，坐标系即composition
+    private PAGLayer[] layersUnderCompositionPoint(float x, float y) {
+        PAGComposition composition = getComposition();
+        if (getSurface() != null && composition.width() > 0 && composition.height() > 0) {
+            x = x * bufferWidth / composition.width();
+            y = y * bufferHeight / composition.height();
+        }
+        return getLayersUnderPoint(x, y);
+    }
+
+    private void clearHitTestCache() {
+        hitTestCache.clear();
+        hitTestFrame = Long.MIN_VALUE;
+    }
+
+    // 将涉及该纹理GL资源的任务提交到自己的串行队列，保证顺序执行且互不重叠
+    public void post(Runnable task) {
+        lane.post(task, renderPriority());
+    }
+
+    // 需在post的任务中调用
     public void updateBufferSize(int width, int height) {
-        if (WorkThreadExecutor.multiThread) {
-            synchronized (this) {
-                surfaceTexture.setDefaultBufferSize(width, height);
+        // 尺寸不变时复用已有buffer
+        if (width != bufferWidth || height != bufferHeight) {
+            surfaceTexture.setDefaultBufferSize(width, height);
+            bufferWidth = width;
+            bufferHeight = height;
+            if (getSurface() != null) {
                 getSurface().updateSize();
-                getSurface().clearAll();
             }
-        } else {
-            surfaceTexture.setDefaultBufferSize(width, height);
-            getSurface().updateSize();
+            if (canvasSurface != null && frameCacheFile != null) {
+                acquireFrameSequence();
+            }
+            clearHitTestCache();
+        }
+        if (getSurface() != null) {
             getSurface().clearAll();
         }
     }
 
+    public int getBufferWidth() {
+        return bufferWidth;
+    }
+
+    public int getBufferHeight() {
+        return bufferHeight;
+    }
+
+    // 需在post的任务中调用
     public void clear() {
-        if (WorkThreadExecutor.multiThread) {
-            synchronized (this) {
-                setComposition(null);
-                if (valid()) {
-                    getSurface().freeCache();
-                    getSurface().clearAll();
-                }
-            }
-        } else {
-            setComposition(null);
-            if (valid()) {
-                getSurface().freeCache();
-                getSurface().clearAll();
-            }
+        setComposition(null);
+        releaseFrameSequence();
+        frameCacheFile = null;
+        if (valid()) {
+            getSurface().freeCache();
+            getSurface().clearAll();
         }
     }
 
     public void cancel() {
-        animator.cancel();
+        if (playing) {
+            playing = false;
+            PagFrameClock.getInstance().remove(this);
+            notifyEvent(FlutterPagPlugin._eventCancel);
+        }
     }
 
     public void pause() {
-        animator.pause();
+        playing = false;
+        PagFrameClock.getInstance().remove(this);
     }
 
     @Override
     public void release() {
-        super.release();
-        animator.cancel();
-        animator.removeAllUpdateListeners();
-        animator.removeAllListeners();
-        WorkThreadExecutor.getInstance().post(() -> {
-            if (WorkThreadExecutor.multiThread) {
-                synchronized (this) {
-                    if (getSurface() != null) getSurface().release();
-                    surfaceTexture.release();
-                    surfaceTexture = null;
-                }
-            } else {
-                if (getSurface() != null) getSurface().release();
-                surfaceTexture.release();
-                surfaceTexture = null;
+        isRelease = true;
+        playing = false;
+        PagFrameClock.getInstance().remove(this);
+        post(() -> {
+            FlutterPagPlayer.super.release();
+            if (getSurface() != null) getSurface().release();
+            releaseFrameSequence();
+            frameCacheFile = null;
+            if (canvasSurface != null) {
+                canvasSurface.release();
+                canvasSurface = null;
             }
-
+            surfaceTexture.release();
+            surfaceTexture = null;
         });
-        isRelease = true;
     }
 
     @Override
@@ -162,64 +496,55 @@ public class FlutterPagPlayer extends PAGPlayer {
         if (isRelease) {
             return false;
         }
-        WorkThreadExecutor.getInstance().post(() -> {
-            if (WorkThreadExecutor.multiThread) {
-                synchronized (this) {
-                    FlutterPagPlayer.super.flush();
-                }
-            } else {
-                FlutterPagPlayer.super.flush();
-            }
-
-        });
+        if (!visible) {
+            dirtyWhileHidden = true;
+            return true;
+        }
+        if (!requestFlush()) {
+            return true;
+        }
+        final long postTime = System.nanoTime();
+        post(() -> performFlush(postTime));
         return true;
-
-//        return super.flush();
     }
 
-    // 更新PAG渲染
-    private final ValueAnimator.AnimatorUpdateListener animatorUpdateListener = new ValueAnimator.AnimatorUpdateListener() {
-
-        @Override
-        public void onAnimationUpdate(ValueAnimator animation) {
-            progress = (double) (Float) animation.getAnimatedValue();
-            currentPlayTime = (long) (progress * (double) animator.getDuration());
-            setProgress(progress);
-            flush();
+    // 标记有待执行的flush，已有待执行的flush时合并并返回false
+    private boolean requestFlush() {
+        if (!flushPending.compareAndSet(false, true)) {
+            skippedFrames.incrementAndGet();
+            PagRenderMetrics.getInstance().onFrameDropped();
+            return false;
         }
-    };
+        return true;
+    }
 
-    // 动画状态监听
-    private final AnimatorListenerAdapter animatorListenerAdapter = new AnimatorListenerAdapter() {
-        @Override
-        public void onAnimationStart(Animator animator) {
-            super.onAnimationStart(animator);
-            notifyEvent(FlutterPagPlugin._eventStart);
-        }
+    private int renderPriority() {
+        return visible ? WorkThreadExecutor.PRIORITY_VISIBLE : WorkThreadExecutor.PRIORITY_HIDDEN;
+    }
 
-        @Override
-        public void onAnimationEnd(Animator animation) {
-            super.onAnimationEnd(animation);
-            // Align with iOS platform, avoid triggering this method when stopping
-            int repeatCount = ((ValueAnimator) animation).getRepeatCount();
-            if (repeatCount >= 0 && (animation.getDuration() > 0) &&
-                    (currentPlayTime / animation.getDuration() > repeatCount)) {
-                notifyEvent(FlutterPagPlugin._eventEnd);
-            }
+    // 在串行队列中执行，需先调用requestFlush
+    private void performFlush(long postTime) {
+        flushPending.set(false);
+        if (isRelease) {
+            return;
         }
-
-        @Override
-        public void onAnimationCancel(Animator animator) {
-            super.onAnimationCancel(animator);
-            notifyEvent(FlutterPagPlugin._eventCancel);
+        long renderStart = System.nanoTime();
+        double progress = renderProgress;
+        if (canvasSurface != null) {
+            drawCachedFrame(progress);
+        } else {
+            setProgress(progress);
+            super.flush();
         }
+        renderedProgress = progress;
+        long renderEnd = System.nanoTime();
+        PagRenderMetrics.getInstance().onFlush(renderEnd - postTime, renderEnd - renderStart);
+    }
 
-        @Override
-        public void onAnimationRepeat(Animator animator) {
-            super.onAnimationRepeat(animator);
-            notifyEvent(FlutterPagPlugin._eventRepeat);
-        }
-    };
+    // 因渲染跟不上而合并掉的帧数
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
 
     void notifyEvent(String event) {
         final HashMap<String, Object> arguments = new HashMap<>();
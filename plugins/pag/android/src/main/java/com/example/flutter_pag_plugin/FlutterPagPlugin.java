@@ -1,24 +1,36 @@
 package com.example.flutter_pag_plugin;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.SurfaceTexture;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Trace;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.view.Surface;
 
 import androidx.annotation.NonNull;
 
+import org.libpag.PAGComposition;
 import org.libpag.PAGFile;
-import org.libpag.PAGLayer;
 import org.libpag.PAGSurface;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.embedding.engine.plugins.activity.ActivityAware;
+import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
@@ -33,12 +45,16 @@ import kotlin.jvm.functions.Function1;
 /**
  * FlutterPagPlugin
  */
-public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
+public class FlutterPagPlugin implements FlutterPlugin, ActivityAware, MethodCallHandler {
     /// The MethodChannel that will the communication between Flutter and native Android
     ///
     /// This local reference serves to register the plugin with the Flutter Engine and unregister it
     /// when the Flutter Engine is detached from the Activity
     private MethodChannel channel;
+    // 拖动进度专用的二进制通道，每条记录为小端的long textureId + double progress
+    private BasicMessageChannel<ByteBuffer> progressChannel;
+    final static String _progressChannelName = "flutter_pag_plugin/progress";
+    final static int _progressRecordSize = 16;
     TextureRegistry textureRegistry;
     Context context;
     // 移除v1 embedding变量
@@ -47,11 +63,11 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
     private Handler handler = new Handler(Looper.getMainLooper());
 
     // 多引擎使用是plugin的集合，请留意该场景下需手动释放，否则存在内存泄漏的问题
-    public static List<FlutterPagPlugin> pluginList = new ArrayList<FlutterPagPlugin>();
+    public static final CopyOnWriteArrayList<FlutterPagPlugin> pluginList = new CopyOnWriteArrayList<FlutterPagPlugin>();
 
-    public HashMap<String, FlutterPagPlayer> layerMap = new HashMap<String, FlutterPagPlayer>();
-    public HashMap<String, TextureRegistry.SurfaceTextureEntry> entryMap = new HashMap<String, TextureRegistry.SurfaceTextureEntry>();
-    public LinkedList<String>  freeEntryPool = new LinkedList<>();
+    // 以textureId为key，渲染线程与主线程均会访问
+    public final PagTextureMap<FlutterPagPlayer> layerMap = new PagTextureMap<>();
+    public final PagTextureMap<TextureRegistry.SurfaceTextureEntry> entryMap = new PagTextureMap<>();
 
     // 原生接口
     final static String _nativeInit = "initPag";
@@ -64,6 +80,26 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
     final static String _nativeEnableCache = "enableCache";
     final static String _nativeSetCacheSize = "setCacheSize";
     final static String _nativeEnableMultiThread = "enableMultiThread";
+    final static String _nativeSetVisible = "setVisible";
+    final static String _nativeGetRenderMetrics = "getRenderMetrics";
+    final static String _nativeGetFrameStats = "getFrameStats";
+    final static String _nativeSetFileLoadThreshold = "setFileLoadThreshold";
+    final static String _nativeSetMemoryCacheSize = "setMemoryCacheSize";
+    final static String _nativeGetMemoryCacheStats = "getMemoryCacheStats";
+    final static String _nativePreload = "preload";
+    final static String _nativeCancelPreload = "cancelPreload";
+    final static String _nativeSetCacheIdleTimeout = "setCacheIdleTimeout";
+    final static String _nativeGetTexturePoolStats = "getTexturePoolStats";
+    final static String _nativeBatch = "batch";
+    final static String _nativeUpdateSize = "updateSize";
+    final static String _nativeEnableRenderDownscale = "enableRenderDownscale";
+    final static String _nativeSetMaxFps = "setMaxFps";
+    final static String _nativeSetFrameBudget = "setFrameBudget";
+    final static String _nativeSetFrameCacheSize = "setFrameCacheSize";
+    final static String _nativeGetFrameCacheStats = "getFrameCacheStats";
+    final static String _nativeCancelInit = "cancelInit";
+    final static String _nativeSetDiskCachePolicy = "setDiskCachePolicy";
+    final static String _nativeGetLoadMetrics = "getLoadMetrics";
 
 
     // 参数
@@ -84,6 +120,36 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
     final static String _argumentCacheEnabled = "cacheEnabled";
     final static String _argumentCacheSize = "cacheSize";
     final static String _argumentMultiThreadEnabled = "multiThreadEnabled";
+    final static String _argumentVisible = "visible";
+    final static String _argumentReset = "reset";
+    final static String _argumentThreshold = "threshold";
+    final static String _argumentMemoryCacheSize = "memoryCacheSize";
+    final static String _argumentItems = "items";
+    final static String _argumentParse = "parse";
+    final static String _argumentPriority = "priority";
+    final static String _argumentPreloadId = "preloadId";
+    final static String _argumentIdleTimeout = "idleTimeout";
+    final static String _argumentTextureIds = "textureIds";
+    final static String _argumentOps = "ops";
+    final static String _argumentValues = "values";
+    final static String _argumentRenderWidth = "renderWidth";
+    final static String _argumentRenderHeight = "renderHeight";
+    final static String _argumentRenderScale = "renderScale";
+    final static String _argumentDownscaleEnabled = "downscaleEnabled";
+    final static String _argumentMaxFps = "maxFps";
+    final static String _argumentFrameBudget = "frameBudget";
+    final static String _argumentFrameCache = "frameCache";
+    final static String _argumentFrameCacheSize = "frameCacheSize";
+    final static String _argumentRequestId = "requestId";
+    final static String _argumentDefaultMaxAge = "defaultMaxAge";
+    final static String _argumentStaleWhileRevalidate = "staleWhileRevalidate";
+
+    // 批量操作类型，与dart侧PAGBatch保持一致
+    final static int _batchOpStart = 0;
+    final static int _batchOpStop = 1;
+    final static int _batchOpPause = 2;
+    final static int _batchOpSetProgress = 3;
+    final static int _batchOpSetVisible = 4;
 
     // 回调
     final static String _playCallback = "PAGCallback";
@@ -95,6 +161,12 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
 
     private boolean useCache = true;
     private int maxFreePoolSize = 10;
+    // 进行中的initPag请求及资源加载，仅在主线程访问
+    private final HashMap<Integer, PagInitRequest> pendingInits = new HashMap<>();
+    private final HashMap<String, PendingLoad> pendingLoads = new HashMap<>();
+
+    // 空闲纹理池，按buffer尺寸复用
+    final PagTexturePool texturePool = new PagTexturePool(maxFreePoolSize, this::releaseTexture);
 
     public FlutterPagPlugin() {
     }
@@ -110,15 +182,21 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
-        if (!pluginList.contains(this)) {
-            pluginList.add(this);
-        }
+        Trace.beginSection("PAG#onAttachedToEngine");
+        pluginList.addIfAbsent(this);
         flutterAssets = binding.getFlutterAssets();
         channel = new MethodChannel(binding.getBinaryMessenger(), "flutter_pag_plugin");
         channel.setMethodCallHandler(this);
+        progressChannel = new BasicMessageChannel<>(binding.getBinaryMessenger(), _progressChannelName, BinaryCodec.INSTANCE);
+        progressChannel.setMessageHandler(progressHandler);
         context = binding.getApplicationContext();
         textureRegistry = binding.getTextureRegistry();
+        // 硬盘缓存在后台线程中打开，不阻塞引擎启动
         DataLoadHelper.INSTANCE.initDiskCache(context, DataLoadHelper.INSTANCE.DEFAULT_DIS_SIZE);
+        context.registerComponentCallbacks(componentCallbacks);
+        PagFrameClock.getInstance().attach(context);
+        PagRenderScale.getInstance().attach(context);
+        Trace.endSection();
     }
 
     // 移除v1 embedding注册方法
@@ -161,7 +239,7 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
                 result.success("");
                 break;
             case _nativeGetPointLayer:
-                result.success(getLayersUnderPoint(call));
+                getLayersUnderPoint(call, result);
                 break;
             case _nativeEnableCache:
                 enableCache(call);
@@ -175,6 +253,78 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
                 enableMultiThread(call);
                 result.success("");
                 break;
+            case _nativeSetVisible:
+                setVisible(call);
+                result.success("");
+                break;
+            case _nativeGetRenderMetrics:
+                result.success(getRenderMetrics(call));
+                break;
+            case _nativeGetFrameStats:
+                result.success(getFrameStats());
+                break;
+            case _nativeGetLoadMetrics:
+                result.success(getLoadMetrics(call));
+                break;
+            case _nativeSetFileLoadThreshold:
+                setFileLoadThreshold(call);
+                result.success("");
+                break;
+            case _nativeSetMemoryCacheSize:
+                setMemoryCacheSize(call);
+                result.success("");
+                break;
+            case _nativeGetMemoryCacheStats:
+                result.success(DataLoadHelper.INSTANCE.getMemoryCacheStats());
+                break;
+            case _nativeSetDiskCachePolicy:
+                setDiskCachePolicy(call);
+                result.success("");
+                break;
+            case _nativePreload:
+                result.success(preload(call));
+                break;
+            case _nativeCancelPreload:
+                cancelPreload(call);
+                result.success("");
+                break;
+            case _nativeSetCacheIdleTimeout:
+                setCacheIdleTimeout(call);
+                result.success("");
+                break;
+            case _nativeGetTexturePoolStats:
+                result.success(texturePool.toMap());
+                break;
+            case _nativeBatch:
+                batch(call, result);
+                break;
+            case _nativeUpdateSize:
+                updateSize(call);
+                result.success("");
+                break;
+            case _nativeSetMaxFps:
+                setMaxFps(call);
+                result.success("");
+                break;
+            case _nativeSetFrameBudget:
+                PagFrameClock.getInstance().setFrameBudget(intArgument(call, _argumentFrameBudget));
+                result.success("");
+                break;
+            case _nativeCancelInit:
+                cancelInit(call);
+                result.success("");
+                break;
+            case _nativeSetFrameCacheSize:
+                PagFrameCache.getInstance().setMaxSize(intArgument(call, _argumentFrameCacheSize));
+                result.success("");
+                break;
+            case _nativeGetFrameCacheStats:
+                result.success(PagFrameCache.getInstance().toMap());
+                break;
+            case _nativeEnableRenderDownscale:
+                PagRenderScale.getInstance().setDownscaleEnabled(Boolean.TRUE.equals(call.argument(_argumentDownscaleEnabled)));
+                result.success("");
+                break;
             default:
                 result.notImplemented();
                 break;
@@ -183,10 +333,88 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
 
     private void enableCache(final MethodCall call) {
         useCache = call.argument(_argumentCacheEnabled);
+        if (!useCache) {
+            texturePool.evictAll();
+        }
     }
 
     private void setCacheSize(final MethodCall call) {
         maxFreePoolSize = call.argument(_argumentCacheSize);
+        texturePool.setMaxSize(maxFreePoolSize);
+    }
+
+    private void setCacheIdleTimeout(final MethodCall call) {
+        Number timeout = call.argument(_argumentIdleTimeout);
+        if (timeout != null) {
+            texturePool.setIdleTimeout(timeout.longValue());
+        }
+    }
+
+    private void setFileLoadThreshold(final MethodCall call) {
+        Number threshold = call.argument(_argumentThreshold);
+        if (threshold != null) {
+            DataLoadHelper.INSTANCE.setFileLoadThreshold(threshold.longValue());
+        }
+    }
+
+    private void setDiskCachePolicy(final MethodCall call) {
+        Number maxAge = call.argument(_argumentDefaultMaxAge);
+        if (maxAge != null) {
+            // 秒转毫秒，小于0表示不过期
+            DataLoadHelper.INSTANCE.setDefaultMaxAgeMs(maxAge.longValue() < 0 ? -1 : maxAge.longValue() * 1000);
+        }
+        Boolean staleWhileRevalidate = call.argument(_argumentStaleWhileRevalidate);
+        if (staleWhileRevalidate != null) {
+            DataLoadHelper.INSTANCE.setStaleWhileRevalidate(staleWhileRevalidate);
+        }
+    }
+
+    private void setMemoryCacheSize(final MethodCall call) {
+        Number size = call.argument(_argumentMemoryCacheSize);
+        if (size != null) {
+            // 超过int范围时按Integer.MAX_VALUE处理
+            DataLoadHelper.INSTANCE.setMemoryCacheSize((int) Math.min(size.longValue(), Integer.MAX_VALUE));
+        }
+    }
+
+    private int preload(final MethodCall call) {
+        List<Map<String, Object>> items = call.argument(_argumentItems);
+        List<PagPreloader.Item> preloadItems = new ArrayList<>();
+        if (items != null) {
+            for (Map<String, Object> item : items) {
+                String url = (String) item.get(_argumentUrl);
+                String assetKey = null;
+                String assetName = (String) item.get(_argumentAssetName);
+                if (url == null && assetName != null) {
+                    assetKey = getAssetKey(assetName, (String) item.get(_argumentPackage));
+                    if (assetKey == null || assetKey.isEmpty()) {
+                        continue;
+                    }
+                }
+                Number priority = (Number) item.get(_argumentPriority);
+                preloadItems.add(new PagPreloader.Item(url, assetKey, priority == null ? 0 : priority.intValue()));
+            }
+        }
+        boolean parse = Boolean.TRUE.equals(call.argument(_argumentParse));
+        return PagPreloader.getInstance().preload(preloadItems, parse, context.getAssets());
+    }
+
+    private void cancelPreload(final MethodCall call) {
+        Integer id = call.argument(_argumentPreloadId);
+        if (id != null) {
+            PagPreloader.getInstance().cancel(id);
+        }
+    }
+
+    // 只使用v2 embedding的flutterAssets
+    private String getAssetKey(String assetName, String flutterPackage) {
+        if (flutterAssets == null) {
+            return "";
+        }
+        if (flutterPackage == null || flutterPackage.isEmpty()) {
+            return flutterAssets.getAssetFilePathByName(assetName);
+        }
+        return flutterAssets.getAssetFilePathByName(assetName, flutterPackage);
     }
 
     private void enableMultiThread(final MethodCall call) {
@@ -200,42 +428,84 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
         String url = call.argument(_argumentUrl);
         String flutterPackage = call.argument(_argumentPackage);
 
+        // requestId为0时不支持取消
+        final int requestId = intArgument(call, _argumentRequestId);
+        final PagInitRequest request = new PagInitRequest(requestId, call, result, () -> pendingInits.remove(requestId));
+        if (requestId != 0) {
+            pendingInits.put(requestId, request);
+        }
+
+        final PagCompositionCache compositionCache = PagCompositionCache.getInstance();
         if (bytes != null) {
-            initPagPlayerAndCallback(PAGFile.Load(bytes), call, result);
-        } else if (assetName != null) {
-            String assetKey;
-            // 只使用v2 embedding的flutterAssets
-            if (flutterAssets != null) {
-                if (flutterPackage == null || flutterPackage.isEmpty()) {
-                    assetKey = flutterAssets.getAssetFilePathByName(assetName);
-                } else {
-                    assetKey = flutterAssets.getAssetFilePathByName(assetName, flutterPackage);
+            final String cacheKey = PagCompositionCache.bytesKey(bytes);
+            PAGFile composition = compositionCache.acquire(cacheKey);
+            if (composition == null) {
+                request.trace.setTier(PagLoadTrace.TIER_BYTES);
+                Trace.beginSection("PAG#parse");
+                long parseStart = System.nanoTime();
+                PAGFile file = PAGFile.Load(bytes);
+                request.trace.addStage(PagLoadTrace.STAGE_PARSE, System.nanoTime() - parseStart);
+                Trace.endSection();
+                if (file != null) {
+                    composition = compositionCache.put(cacheKey, file, bytes.length);
                 }
-            } else {
-                assetKey = "";
             }
+            initPagPlayerAndCallback(composition, cacheKey, request);
+        } else if (assetName != null) {
+            final String assetKey = getAssetKey(assetName, flutterPackage);
 
             if (assetKey == null) {
-                result.error("-1100", "asset资源加载错误", null);
+                request.error("-1100", "asset资源加载错误", null);
+                return;
+            }
+            final String cacheKey = PagCompositionCache.assetKey(assetKey);
+            PAGFile cached = compositionCache.acquire(cacheKey);
+            if (cached != null) {
+                initPagPlayerAndCallback(cached, cacheKey, request);
                 return;
             }
-            WorkThreadExecutor.getInstance().post(() -> {
-                PAGFile composition = PAGFile.Load(context.getAssets(), assetKey);
-                handler.post(() -> initPagPlayerAndCallback(composition, call, result));
+            final PendingLoad load = joinLoad(cacheKey, request);
+            if (load == null) {
+                return;
+            }
+            load.tier = PagLoadTrace.TIER_ASSET;
+            // 解析在IO线程池中执行，不占用渲染线程
+            DataLoadHelper.INSTANCE.executeIo(() -> {
+                // 所有请求都已取消时跳过解析
+                PAGFile file = null;
+                if (!load.cancelled) {
+                    Trace.beginSection("PAG#parse");
+                    long parseStart = System.nanoTime();
+                    PagCompositionCache.AssetFile asset = PagCompositionCache.loadAsset(context.getAssets(), assetKey);
+                    if (asset != null) {
+                        file = asset.file;
+                        load.sourceBytes = asset.size;
+                    }
+                    load.parseNanos = System.nanoTime() - parseStart;
+                    Trace.endSection();
+                }
+                final PAGFile loaded = file;
+                handler.post(() -> completeLoad(cacheKey, load, loaded, "asset资源加载错误"));
             });
         } else if (url != null) {
-            DataLoadHelper.INSTANCE.loadPag(url, new Function1<byte[], Unit>() {
+            final String cacheKey = PagCompositionCache.urlKey(url);
+            // 数据已过期时不使用解析缓存，经DataLoadHelper校验后重新解析
+            PAGFile cached = DataLoadHelper.INSTANCE.canUseCached(url) ? compositionCache.acquire(cacheKey) : null;
+            if (cached != null) {
+                initPagPlayerAndCallback(cached, cacheKey, request);
+                return;
+            }
+            final PendingLoad load = joinLoad(cacheKey, request);
+            if (load == null) {
+                return;
+            }
+            load.loadTask = DataLoadHelper.INSTANCE.loadPagFile(url, new Function1<PAGFile, Unit>() {
                 @Override
-                public Unit invoke(final byte[] bytes) {
+                public Unit invoke(final PAGFile file) {
                     handler.post(new Runnable() {
                         @Override
                         public void run() {
-                            if (bytes == null) {
-                                result.error("-1100", "url资源加载错误", null);
-                                return;
-                            }
-
-                            initPagPlayerAndCallback(PAGFile.Load(bytes), call, result);
+                            completeLoad(cacheKey, load, file, "url资源加载错误");
                         }
                     });
 
@@ -243,58 +513,157 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
                 }
             }, DataLoadHelper.FROM_PLUGIN);
         } else {
-            result.error("-1100", "未添加资源", null);
+            request.error("-1100", "未添加资源", null);
+        }
+    }
+
+    // 加入相同资源进行中的加载，返回null表示已有加载，否则由调用方发起加载
+    private PendingLoad joinLoad(String cacheKey, PagInitRequest request) {
+        request.loadKey = cacheKey;
+        PendingLoad load = pendingLoads.get(cacheKey);
+        if (load != null) {
+            load.requests.add(request);
+            return null;
+        }
+        load = new PendingLoad();
+        load.requests.add(request);
+        pendingLoads.put(cacheKey, load);
+        return load;
+    }
+
+    // 加载完成后解析结果只放入缓存一次，各请求分别获取副本，已取消的请求直接丢弃
+    private void completeLoad(String cacheKey, PendingLoad load, PAGFile file, String errorMsg) {
+        if (pendingLoads.get(cacheKey) == load) {
+            pendingLoads.remove(cacheKey);
+        }
+        final PagCompositionCache compositionCache = PagCompositionCache.getInstance();
+        for (PagInitRequest request : load.requests) {
+            if (request.isCancelled()) {
+                continue;
+            }
+            if (file == null) {
+                request.error("-1100", errorMsg, null);
+                continue;
+            }
+            load.applyTrace(request.trace);
+            PAGFile composition = compositionCache.acquire(cacheKey);
+            if (composition == null) {
+                composition = compositionCache.put(cacheKey, file, PagCompositionCache.estimateSize(file, load.sourceBytes()));
+            }
+            initPagPlayerAndCallback(composition, cacheKey, request);
+        }
+    }
+
+    // 取消尚未完成的初始化，同一资源的请求全部取消时中断加载
+    private void cancelInit(final MethodCall call) {
+        PagInitRequest request = pendingInits.get(intArgument(call, _argumentRequestId));
+        if (request == null) {
+            return;
+        }
+        request.cancel();
+        PendingLoad load = request.loadKey == null ? null : pendingLoads.get(request.loadKey);
+        if (load == null) {
+            return;
+        }
+        for (PagInitRequest waiting : load.requests) {
+            if (!waiting.isCancelled()) {
+                return;
+            }
+        }
+        load.cancelled = true;
+        pendingLoads.remove(request.loadKey);
+        if (load.loadTask != null) {
+            load.loadTask.cancel();
         }
     }
 
-    private void initPagPlayerAndCallback(PAGFile composition, MethodCall call, final Result result) {
+    // composition来自PagCompositionCache，失败时需归还引用
+    private void initPagPlayerAndCallback(PAGFile composition, String compositionKey, final PagInitRequest request) {
+        final long textureStart = System.nanoTime();
+        final MethodCall call = request.call;
+        final Result result = request;
         if (composition == null) {
             result.error("-1100", "load composition is null! ", null);
             return;
         }
+        // 已取消的请求不再分配纹理
+        if (request.isCancelled()) {
+            PagCompositionCache.getInstance().release(compositionKey);
+            return;
+        }
 
         final int repeatCount = call.argument(_argumentRepeatCount);
         final double initProgress = call.argument(_argumentInitProgress);
         final boolean autoPlay = call.argument(_argumentAutoPlay);
+        // buffer按显示尺寸分配，未传显示尺寸时使用composition原始尺寸
+        final int[] bufferSize = PagRenderScale.getInstance().bufferSize(composition.width(), composition.height(),
+                intArgument(call, _argumentRenderWidth), intArgument(call, _argumentRenderHeight), doubleArgument(call, _argumentRenderScale));
+        // 帧缓存模式的纹理单独创建，不与复用池中的纹理混用
+        final boolean frameCache = Boolean.TRUE.equals(call.argument(_argumentFrameCache)) && compositionKey != null
+                && PagFrameCache.getInstance().canCache(composition, bufferSize[0], bufferSize[1]);
         final FlutterPagPlayer pagPlayer;
-        final String currentId;
-        if (freeEntryPool.isEmpty() || !useCache) {
+        final long currentId;
+        long pooledId = useCache && !frameCache ? texturePool.acquire(bufferSize[0], bufferSize[1]) : -1;
+        if (pooledId < 0) {
             pagPlayer = new FlutterPagPlayer();
             final TextureRegistry.SurfaceTextureEntry entry = textureRegistry.createSurfaceTexture();
-            currentId = String.valueOf(entry.id());
-            entryMap.put(String.valueOf(entry.id()), entry);
+            currentId = entry.id();
+            entryMap.put(currentId, entry);
             SurfaceTexture surfaceTexture = entry.surfaceTexture();
 
             final Surface surface = new Surface(surfaceTexture);
-            final PAGSurface pagSurface = PAGSurface.FromSurface(surface);
-            pagPlayer.setSurface(pagSurface);
+            if (frameCache) {
+                pagPlayer.enableFrameCache(surface, compositionKey);
+            } else {
+                final PAGSurface pagSurface = PAGSurface.FromSurface(surface);
+                pagPlayer.setSurface(pagSurface);
+            }
             pagPlayer.setSurfaceTexture(surfaceTexture);
-            layerMap.put(String.valueOf(entry.id()), pagPlayer);
+            layerMap.put(currentId, pagPlayer);
         } else {
-            currentId = freeEntryPool.removeFirst();
+            currentId = pooledId;
             pagPlayer = layerMap.get(currentId);
             if (pagPlayer == null) {
+                PagCompositionCache.getInstance().release(compositionKey);
                 result.error("-1101", "id异常，未命中缓存！", null);
                 return;
             }
             if (pagPlayer.isRelease()) {
+                PagCompositionCache.getInstance().release(compositionKey);
                 result.error("-1102", "PagPlayer异常！", null);
                 return;
             }
         }
+        pagPlayer.setCompositionKey(compositionKey);
+        pagPlayer.setMaxFps((float) doubleArgument(call, _argumentMaxFps));
+        final PagLoadTrace trace = request.trace;
+        trace.addStage(PagLoadTrace.STAGE_TEXTURE, System.nanoTime() - textureStart);
 
-        WorkThreadExecutor.getInstance().post(() -> {
-            pagPlayer.updateBufferSize(composition.width(), composition.height());
-            pagPlayer.init(composition, repeatCount, initProgress, channel, Long.parseLong(currentId));
+        pagPlayer.post(() -> {
+            Trace.beginSection("PAG#playerInit");
+            long initStart = System.nanoTime();
+            pagPlayer.updateBufferSize(bufferSize[0], bufferSize[1]);
+            pagPlayer.init(composition, repeatCount, initProgress, channel, currentId);
             final HashMap<String, Object> callback = new HashMap<String, Object>();
-            callback.put(_argumentTextureId, Long.parseLong(currentId));
+            callback.put(_argumentTextureId, currentId);
             callback.put(_argumentWidth, (double) composition.width());
             callback.put(_argumentHeight, (double) composition.height());
-            pagPlayer.flush();
+            final long flushStart = System.nanoTime();
+            trace.addStage(PagLoadTrace.STAGE_INIT, flushStart - initStart);
+            Trace.endSection();
+
+            // init中已提交flush，其后的任务执行时首帧已渲染完成；只用于统计，不延后回复
+            trace.expectFirstFrame();
+            pagPlayer.post(() -> trace.addStage(PagLoadTrace.STAGE_FIRST_FRAME, System.nanoTime() - flushStart));
 
             handler.post(new Runnable() {
                 @Override
                 public void run() {
+                    // 初始化期间被取消，dart侧不会再使用该纹理，直接回收
+                    if (request.isCancelled()) {
+                        release(currentId);
+                        return;
+                    }
                     if (autoPlay) {
                         pagPlayer.start();
                     }
@@ -304,6 +673,15 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
         });
     }
 
+    // 归还播放器持有的composition引用
+    private void releaseComposition(FlutterPagPlayer pagPlayer) {
+        String compositionKey = pagPlayer.getCompositionKey();
+        if (compositionKey != null) {
+            pagPlayer.setCompositionKey(null);
+            PagCompositionCache.getInstance().release(compositionKey);
+        }
+    }
+
     void start(MethodCall call) {
         FlutterPagPlayer flutterPagPlayer = getFlutterPagPlayer(call);
         if (flutterPagPlayer != null) {
@@ -334,82 +712,329 @@ public class FlutterPagPlugin implements FlutterPlugin, MethodCallHandler {
     }
 
     void release(MethodCall call) {
-        if (useCache && freeEntryPool.size() < maxFreePoolSize) {
-            FlutterPagPlayer flutterPagPlayer = layerMap.get(getTextureId(call));
-            int id = call.argument(_argumentTextureId);
+        release(getTextureId(call));
+    }
+
+    void release(final long id) {
+        final FlutterPagPlayer flutterPagPlayer = layerMap.get(id);
+        // 帧缓存模式的纹理不进入复用池
+        if (useCache && maxFreePoolSize > 0 && (flutterPagPlayer == null || !flutterPagPlayer.isFrameCacheEnabled())) {
             if (flutterPagPlayer != null) {
                 flutterPagPlayer.cancel();
-                WorkThreadExecutor.getInstance().post(() -> {
+                releaseComposition(flutterPagPlayer);
+                flutterPagPlayer.post(() -> {
                     flutterPagPlayer.clear();
+                    final int width = flutterPagPlayer.getBufferWidth();
+                    final int height = flutterPagPlayer.getBufferHeight();
                     if (id >= 0) {
                         handler.post(() -> {
-                            freeEntryPool.add(id + "");
+                            // 等待期间插件可能已整体释放
+                            if (layerMap.get(id) == flutterPagPlayer) {
+                                texturePool.put(id, width, height);
+                            }
                         });
                     }
                 });
             }
         } else {
-            FlutterPagPlayer flutterPagPlayer = layerMap.remove(getTextureId(call));
             if (flutterPagPlayer != null) {
                 flutterPagPlayer.stop();
-                flutterPagPlayer.release();
+                releaseComposition(flutterPagPlayer);
+            }
+            releaseTexture(id);
+        }
+    }
+
+    // 释放纹理及对应的播放器
+    private void releaseTexture(long textureId) {
+        FlutterPagPlayer flutterPagPlayer = layerMap.remove(textureId);
+        if (flutterPagPlayer != null) {
+            flutterPagPlayer.release();
+        }
+
+        TextureRegistry.SurfaceTextureEntry entry = entryMap.remove(textureId);
+        if (entry != null) {
+            entry.release();
+        }
+    }
+
+    void setMaxFps(MethodCall call) {
+        FlutterPagPlayer flutterPagPlayer = getFlutterPagPlayer(call);
+        if (flutterPagPlayer != null) {
+            flutterPagPlayer.setMaxFps((float) doubleArgument(call, _argumentMaxFps));
+        }
+    }
+
+    // 显示尺寸变化时重新分配buffer
+    void updateSize(MethodCall call) {
+        final FlutterPagPlayer flutterPagPlayer = getFlutterPagPlayer(call);
+        if (flutterPagPlayer == null) {
+            return;
+        }
+        final int renderWidth = intArgument(call, _argumentRenderWidth);
+        final int renderHeight = intArgument(call, _argumentRenderHeight);
+        final double renderScale = doubleArgument(call, _argumentRenderScale);
+        flutterPagPlayer.post(() -> {
+            PAGComposition composition = flutterPagPlayer.getComposition();
+            if (composition == null || flutterPagPlayer.isRelease()) {
+                return;
             }
+            int[] bufferSize = PagRenderScale.getInstance().bufferSize(composition.width(), composition.height(),
+                    renderWidth, renderHeight, renderScale);
+            flutterPagPlayer.updateBufferSize(bufferSize[0], bufferSize[1]);
+            flutterPagPlayer.flush();
+        });
+    }
+
+    private static int intArgument(MethodCall call, String key) {
+        Number value = call.argument(key);
+        return value == null ? 0 : value.intValue();
+    }
 
-            TextureRegistry.SurfaceTextureEntry entry = entryMap.remove(getTextureId(call));
-            if (entry != null) {
-                entry.release();
+    private static double doubleArgument(MethodCall call, String key) {
+        Number value = call.argument(key);
+        return value == null ? 0 : value.doubleValue();
+    }
+
+    // 一次调用内按顺序执行多个纹理的操作，参数为等长的textureIds、ops、values数组
+    void batch(MethodCall call, Result result) {
+        long[] textureIds = call.argument(_argumentTextureIds);
+        int[] ops = call.argument(_argumentOps);
+        double[] values = call.argument(_argumentValues);
+        if (textureIds == null || ops == null || values == null
+                || ops.length != textureIds.length || values.length != textureIds.length) {
+            result.error("-1103", "batch参数错误", null);
+            return;
+        }
+        for (int i = 0; i < textureIds.length; i++) {
+            FlutterPagPlayer flutterPagPlayer = layerMap.get(textureIds[i]);
+            if (flutterPagPlayer == null) {
+                continue;
+            }
+            switch (ops[i]) {
+                case _batchOpStart:
+                    flutterPagPlayer.start();
+                    break;
+                case _batchOpStop:
+                    flutterPagPlayer.stop();
+                    break;
+                case _batchOpPause:
+                    flutterPagPlayer.pause();
+                    break;
+                case _batchOpSetProgress:
+                    flutterPagPlayer.setProgressValue(values[i]);
+                    break;
+                case _batchOpSetVisible:
+                    flutterPagPlayer.setVisible(values[i] != 0);
+                    break;
+                default:
+                    break;
             }
         }
+        result.success("");
     }
 
-    List<String> getLayersUnderPoint(MethodCall call) {
+    // 直接读取ByteBuffer中的记录，不创建参数Map
+    private final BasicMessageChannel.MessageHandler<ByteBuffer> progressHandler = new BasicMessageChannel.MessageHandler<ByteBuffer>() {
+        @Override
+        public void onMessage(ByteBuffer message, @NonNull BasicMessageChannel.Reply<ByteBuffer> reply) {
+            if (message != null) {
+                message.order(ByteOrder.LITTLE_ENDIAN);
+                while (message.remaining() >= _progressRecordSize) {
+                    long textureId = message.getLong();
+                    double progress = message.getDouble();
+                    FlutterPagPlayer flutterPagPlayer = layerMap.get(textureId);
+                    if (flutterPagPlayer != null) {
+                        flutterPagPlayer.setProgressValue(progress);
+                    }
+                }
+            }
+            reply.reply(null);
+        }
+    };
+
+    void setVisible(MethodCall call) {
+        Boolean visible = call.argument(_argumentVisible);
         FlutterPagPlayer flutterPagPlayer = getFlutterPagPlayer(call);
+        if (flutterPagPlayer != null && visible != null) {
+            flutterPagPlayer.setVisible(visible);
+        }
+    }
 
-        List<String> layerNames = new ArrayList<>();
-        PAGLayer[] layers = null;
-        if (flutterPagPlayer != null) {
-            layers = flutterPagPlayer.getLayersUnderPoint(
-                    ((Double) call.argument(_argumentPointX)).floatValue(), ((Double) call.argument(_argumentPointY)).floatValue());
+    Map<String, Object> getRenderMetrics(MethodCall call) {
+        Map<String, Object> metrics = PagRenderMetrics.getInstance().toMap();
+        if (Boolean.TRUE.equals(call.argument(_argumentReset))) {
+            PagRenderMetrics.getInstance().reset();
+        }
+        return metrics;
+    }
+
+    Map<String, Object> getLoadMetrics(MethodCall call) {
+        Map<String, Object> metrics = PagLoadMetrics.getInstance().toMap();
+        if (Boolean.TRUE.equals(call.argument(_argumentReset))) {
+            PagLoadMetrics.getInstance().reset();
         }
+        return metrics;
+    }
 
-        if (layers != null) {
-            for (PAGLayer layer : layers) {
-                layerNames.add(layer.layerName());
+    // 各纹理的帧统计，key为textureId
+    Map<Long, Map<String, Object>> getFrameStats() {
+        Map<Long, Map<String, Object>> stats = new HashMap<>();
+        LongSparseArray<FlutterPagPlayer> players = layerMap.snapshot();
+        for (int i = 0; i < players.size(); i++) {
+            long textureId = players.keyAt(i);
+            if (texturePool.contains(textureId)) {
+                continue;
             }
+            FlutterPagPlayer player = players.valueAt(i);
+            Map<String, Object> playerStats = new HashMap<>();
+            playerStats.put("skippedFrames", player.getSkippedFrames());
+            playerStats.put("cappedFrames", player.getCappedFrames());
+            playerStats.put("unchangedFrames", player.getUnchangedFrames());
+            playerStats.put("fps", (double) player.effectiveFps());
+            stats.put(textureId, playerStats);
         }
+        return stats;
+    }
 
-        return layerNames;
+    // 在播放器的渲染线程中计算，结果回到主线程回复
+    void getLayersUnderPoint(MethodCall call, final Result result) {
+        FlutterPagPlayer flutterPagPlayer = getFlutterPagPlayer(call);
+        if (flutterPagPlayer == null) {
+            result.success(Collections.<String>emptyList());
+            return;
+        }
+        flutterPagPlayer.hitTest((float) doubleArgument(call, _argumentPointX), (float) doubleArgument(call, _argumentPointY),
+                layerNames -> handler.post(() -> result.success(layerNames)));
     }
 
     FlutterPagPlayer getFlutterPagPlayer(MethodCall call) {
         return layerMap.get(getTextureId(call));
     }
 
-    String getTextureId(MethodCall call) {
-        return "" + call.argument(_argumentTextureId);
+    // dart侧int可能以Integer或Long传入，缺省返回-1
+    long getTextureId(MethodCall call) {
+        Number textureId = call.argument(_argumentTextureId);
+        return textureId == null ? -1 : textureId.longValue();
     }
 
     //插件销毁
     public void onDestroy() {
         releaseAll();
         channel.setMethodCallHandler(null);
+        if (progressChannel != null) {
+            progressChannel.setMessageHandler(null);
+        }
+        if (context != null) {
+            context.unregisterComponentCallbacks(componentCallbacks);
+        }
     }
 
+    // 系统内存紧张时释放缓存
+    private final ComponentCallbacks2 componentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            DataLoadHelper.INSTANCE.trimMemory(level);
+            PagRenderScale.getInstance().onTrimMemory(level);
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                texturePool.evictAll();
+            }
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                PagCompositionCache.getInstance().trim();
+                PagFrameCache.getInstance().trim();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    };
+
     // 释放全部资源
     public void releaseAll() {
-        for (FlutterPagPlayer pagPlayer : layerMap.values()) {
+        // 进行中的初始化不再分配纹理
+        for (PagInitRequest request : new ArrayList<>(pendingInits.values())) {
+            request.cancel();
+        }
+        for (PendingLoad load : pendingLoads.values()) {
+            load.cancelled = true;
+            for (PagInitRequest request : load.requests) {
+                request.cancel();
+            }
+            if (load.loadTask != null) {
+                load.loadTask.cancel();
+            }
+        }
+        pendingLoads.clear();
+        // 整体取出后释放，取出后其他线程已无法查到，不会重复释放
+        LongSparseArray<FlutterPagPlayer> players = layerMap.clear();
+        for (int i = 0; i < players.size(); i++) {
+            FlutterPagPlayer pagPlayer = players.valueAt(i);
+            releaseComposition(pagPlayer);
             pagPlayer.release();
         }
-        for (TextureRegistry.SurfaceTextureEntry entry : entryMap.values()) {
-            entry.release();
+        LongSparseArray<TextureRegistry.SurfaceTextureEntry> entries = entryMap.clear();
+        for (int i = 0; i < entries.size(); i++) {
+            entries.valueAt(i).release();
         }
-        freeEntryPool.clear();
-        layerMap.clear();
-        entryMap.clear();
+        texturePool.clear();
     }
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
         onDestroy();
     }
+
+    // 宿主Activity可能早于引擎attach启动，交给帧时钟补充前后台状态
+    @Override
+    public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
+        PagFrameClock.getInstance().onAttachedToActivity(binding.getActivity());
+    }
+
+    @Override
+    public void onReattachedToActivityForConfigChanges(@NonNull ActivityPluginBinding binding) {
+        PagFrameClock.getInstance().onAttachedToActivity(binding.getActivity());
+    }
+
+    @Override
+    public void onDetachedFromActivityForConfigChanges() {
+    }
+
+    @Override
+    public void onDetachedFromActivity() {
+    }
+
+    // 同一资源的多个initPag请求共用一次加载和解析
+    private static final class PendingLoad {
+        final ArrayList<PagInitRequest> requests = new ArrayList<>();
+        LoadTask loadTask;
+        volatile boolean cancelled;
+        // asset资源的来源及解析耗时，url资源从loadTask中读取
+        String tier = PagLoadTrace.TIER_NETWORK;
+        long parseNanos;
+        long sourceBytes;
+
+        // 源文件大小，与bytes资源一致按此计入PagCompositionCache
+        long sourceBytes() {
+            return loadTask != null ? loadTask.getInfo().getSourceBytes() : sourceBytes;
+        }
+
+        void applyTrace(PagLoadTrace trace) {
+            if (loadTask != null) {
+                LoadInfo info = loadTask.getInfo();
+                trace.setTier(PagLoadTrace.tierOf(info.getSource()));
+                trace.addStage(PagLoadTrace.STAGE_LOAD, info.getLoadNanos());
+                trace.addStage(PagLoadTrace.STAGE_PARSE, info.getParseNanos());
+            } else {
+                trace.setTier(tier);
+                trace.addStage(PagLoadTrace.STAGE_PARSE, parseNanos);
+            }
+        }
+    }
 }
@@ -0,0 +1,211 @@
+package com.example.flutter_pag_plugin;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import com.example.flutter_pag_plugin.utils.EncodeUtil;
+
+import org.libpag.PAGFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import kotlin.Unit;
+
+/**
+ * 进程内共享的PAGFile解析缓存
+ * 按资源key缓存解析后的原始PAGFile，每个播放器通过copyOriginal拿到自己的副本，避免重复解析
+ * 条目按引用计数管理，引用为0的条目按LRU及估算的native大小淘汰
+ */
+public class PagCompositionCache {
+    public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024L;
+
+    private static final PagCompositionCache instance = new PagCompositionCache();
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private long size;
+
+    private PagCompositionCache() {
+        // url内容更新后，旧的解析结果不再命中
+        DataLoadHelper.INSTANCE.addInvalidationListener(url -> {
+            remove(urlKey(url));
+            return Unit.INSTANCE;
+        });
+    }
+
+    public static PagCompositionCache getInstance() {
+        return instance;
+    }
+
+    static String assetKey(String assetKey) {
+        return "asset:" + assetKey;
+    }
+
+    static String urlKey(String url) {
+        return "url:" + url;
+    }
+
+    static String bytesKey(byte[] bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return "bytes:" + EncodeUtil.bytesToHexString(digest.digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            return "bytes:" + Arrays.hashCode(bytes) + ":" + bytes.length;
+        }
+    }
+
+    /**
+     * 解析asset资源并得到源文件大小，与bytes、url资源统一按源文件大小计入缓存
+     * 未压缩的asset直接取长度由libpag读取，压缩存储的asset读出后按字节解析
+     *
+     * @return 资源不存在或解析失败返回null
+     */
+    static AssetFile loadAsset(AssetManager assets, String assetKey) {
+        try (AssetFileDescriptor fd = assets.openFd(assetKey)) {
+            PAGFile file = PAGFile.Load(assets, assetKey);
+            return file == null ? null : new AssetFile(file, fd.getLength());
+        } catch (IOException e) {
+            // 压缩存储，无法获取文件描述符
+        }
+        try (InputStream ins = assets.open(assetKey)) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int len;
+            while ((len = ins.read(buffer)) != -1) {
+                bos.write(buffer, 0, len);
+            }
+            byte[] bytes = bos.toByteArray();
+            PAGFile file = PAGFile.Load(bytes);
+            return file == null ? null : new AssetFile(file, bytes.length);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // 未知源数据大小时按一帧画面估算
+    static long estimateSize(PAGFile file, long sourceBytes) {
+        if (sourceBytes > 0) {
+            return sourceBytes;
+        }
+        return (long) file.width() * file.height() * 4;
+    }
+
+    // 命中时返回独立副本并增加引用计数，未命中返回null
+    public synchronized PAGFile acquire(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.stale) {
+            return null;
+        }
+        entry.refCount++;
+        return entry.file.copyOriginal();
+    }
+
+    // 是否有可命中的条目，不创建副本也不改变引用计数
+    public synchronized boolean contains(String key) {
+        Entry entry = entries.get(key);
+        return entry != null && !entry.stale;
+    }
+
+    // 缓存解析结果并返回一份副本（引用计数+1），已有相同key时复用已缓存的条目
+    // 已失效的条目替换为新的解析结果，沿用引用计数，旧播放器的release仍然成对
+    public synchronized PAGFile put(String key, PAGFile file, long estimatedSize) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.stale) {
+            Entry replaced = new Entry(file, estimatedSize);
+            if (entry != null) {
+                replaced.refCount = entry.refCount;
+                size -= entry.size;
+            }
+            entry = replaced;
+            entries.put(key, entry);
+            size += estimatedSize;
+        }
+        entry.refCount++;
+        PAGFile copy = entry.file.copyOriginal();
+        trimToSize(maxSize);
+        return copy;
+    }
+
+    public synchronized void release(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        if (entry.refCount > 0) {
+            entry.refCount--;
+        }
+        if (entry.stale && entry.refCount == 0) {
+            removeEntry(key, entry);
+        }
+        trimToSize(maxSize);
+    }
+
+    // 源数据已更新：未被引用的条目直接移除，仍被引用的标记为失效，不再命中，引用全部释放后移除
+    public synchronized void remove(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        if (entry.refCount == 0) {
+            removeEntry(key, entry);
+        } else {
+            entry.stale = true;
+        }
+    }
+
+    private void removeEntry(String key, Entry entry) {
+        entries.remove(key);
+        size -= entry.size;
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    // 释放所有未被引用的条目
+    public synchronized void trim() {
+        trimToSize(0);
+    }
+
+    private void trimToSize(long targetSize) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > targetSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.refCount == 0) {
+                size -= entry.size;
+                iterator.remove();
+            }
+        }
+    }
+
+    static final class AssetFile {
+        final PAGFile file;
+        final long size;
+
+        AssetFile(PAGFile file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private static final class Entry {
+        final PAGFile file;
+        final long size;
+        int refCount;
+        boolean stale;
+
+        Entry(PAGFile file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
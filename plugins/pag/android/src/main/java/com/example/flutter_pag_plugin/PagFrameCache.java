@@ -0,0 +1,225 @@
+package com.example.flutter_pag_plugin;
+
+import android.graphics.Bitmap;
+
+import org.libpag.PAGDecoder;
+import org.libpag.PAGFile;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kotlin.Unit;
+
+/**
+ * 短循环动画的帧序列缓存
+ * 每个帧只通过PAGDecoder渲染一次，之后的循环直接绘制缓存的Bitmap
+ * 同一资源同一尺寸的播放器共用一份帧序列，条目按引用计数管理，引用为0的条目按LRU及字节数淘汰
+ */
+public class PagFrameCache {
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024L;
+
+    private static final PagFrameCache instance = new PagFrameCache();
+
+    private final LinkedHashMap<String, FrameSequence> sequences = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private long size;
+    // 帧计数在FrameSequence的锁内更新，使用原子变量避免与缓存锁嵌套
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong renderCount = new AtomicLong();
+
+    private PagFrameCache() {
+        // url内容更新后，旧内容渲染出的帧不再命中
+        DataLoadHelper.INSTANCE.addInvalidationListener(url -> {
+            remove(PagCompositionCache.urlKey(url));
+            return Unit.INSTANCE;
+        });
+    }
+
+    public static PagFrameCache getInstance() {
+        return instance;
+    }
+
+    // 按一个循环的帧数估算缓存全部帧需要的字节数
+    static long estimateSize(PAGFile file, int width, int height) {
+        long frames = Math.max(1, Math.round(file.duration() / 1000000.0 * file.frameRate()));
+        return frames * width * height * 4;
+    }
+
+    // 单个帧序列不超过缓存上限时才适合缓存
+    public synchronized boolean canCache(PAGFile file, int width, int height) {
+        return estimateSize(file, width, height) <= maxSize;
+    }
+
+    // 获取帧序列并增加引用计数，解码器创建失败时返回null
+    public FrameSequence acquire(String compositionKey, PAGFile file, int width, int height) {
+        String key = compositionKey + "@" + width + "x" + height;
+        synchronized (this) {
+            FrameSequence sequence = sequences.get(key);
+            if (sequence != null) {
+                sequence.refCount++;
+                return sequence;
+            }
+        }
+        // 解码器使用独立副本，避免与播放器共用composition
+        PAGFile copy = file.copyOriginal();
+        float scale = file.width() > 0 ? (float) width / file.width() : 1f;
+        PAGDecoder decoder = copy == null ? null : PAGDecoder.Make(copy, file.frameRate(), scale);
+        if (decoder == null || decoder.numFrames() <= 0) {
+            if (decoder != null) {
+                decoder.release();
+            }
+            return null;
+        }
+        synchronized (this) {
+            FrameSequence sequence = sequences.get(key);
+            if (sequence != null) {
+                // 并发创建时保留先放入的序列
+                decoder.release();
+            } else {
+                sequence = new FrameSequence(key, compositionKey, decoder);
+                sequences.put(key, sequence);
+                size += sequence.byteSize;
+            }
+            sequence.refCount++;
+            trimToSize(maxSize);
+            return sequence;
+        }
+    }
+
+    public synchronized void release(FrameSequence sequence) {
+        if (sequence.refCount > 0) {
+            sequence.refCount--;
+        }
+        if (sequence.stale && sequence.refCount == 0) {
+            sequence.recycle();
+        }
+        trimToSize(maxSize);
+    }
+
+    // 源数据已更新：移出该资源所有尺寸的帧序列，之后的acquire重新解码
+    // 仍被引用的序列继续供原播放器使用，引用全部释放后回收
+    public synchronized void remove(String compositionKey) {
+        Iterator<FrameSequence> iterator = sequences.values().iterator();
+        while (iterator.hasNext()) {
+            FrameSequence sequence = iterator.next();
+            if (!sequence.compositionKey.equals(compositionKey)) {
+                continue;
+            }
+            iterator.remove();
+            size -= sequence.byteSize;
+            if (sequence.refCount == 0) {
+                sequence.recycle();
+            } else {
+                sequence.stale = true;
+            }
+        }
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    // 释放所有未被引用的帧序列
+    public synchronized void trim() {
+        trimToSize(0);
+    }
+
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("size", size);
+        map.put("maxSize", maxSize);
+        map.put("sequenceCount", sequences.size());
+        map.put("hitCount", hitCount.get());
+        map.put("renderCount", renderCount.get());
+        return map;
+    }
+
+    private void trimToSize(long targetSize) {
+        Iterator<FrameSequence> iterator = sequences.values().iterator();
+        while (size > targetSize && iterator.hasNext()) {
+            FrameSequence sequence = iterator.next();
+            if (sequence.refCount == 0) {
+                size -= sequence.byteSize;
+                iterator.remove();
+                sequence.recycle();
+            }
+        }
+    }
+
+    /**
+     * 一个循环的全部帧，首次用到某一帧时渲染并保存，全部帧渲染完成后释放解码器
+     */
+    public static final class FrameSequence {
+        final String key;
+        final String compositionKey;
+        final int width;
+        final int height;
+        final int numFrames;
+        final long byteSize;
+        private final Bitmap[] frames;
+        private PAGDecoder decoder;
+        private int renderedCount;
+        private boolean recycled;
+        // 由PagFrameCache在持锁时修改
+        int refCount;
+        // 已移出缓存，引用释放后回收
+        boolean stale;
+
+        FrameSequence(String key, String compositionKey, PAGDecoder decoder) {
+            this.key = key;
+            this.compositionKey = compositionKey;
+            this.decoder = decoder;
+            this.width = decoder.width();
+            this.height = decoder.height();
+            this.numFrames = decoder.numFrames();
+            this.byteSize = (long) numFrames * width * height * 4;
+            this.frames = new Bitmap[numFrames];
+        }
+
+        int frameIndex(double progress) {
+            return (int) Math.max(0, Math.min(numFrames - 1, Math.floor(progress * numFrames)));
+        }
+
+        // 可能在多个播放器的渲染线程中同时调用
+        synchronized Bitmap frameAt(int index) {
+            if (recycled || index < 0 || index >= numFrames) {
+                return null;
+            }
+            Bitmap frame = frames[index];
+            if (frame != null) {
+                instance.hitCount.incrementAndGet();
+                return frame;
+            }
+            frame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            if (decoder == null || !decoder.copyFrameTo(frame, index)) {
+                frame.recycle();
+                return null;
+            }
+            frames[index] = frame;
+            instance.renderCount.incrementAndGet();
+            if (++renderedCount == numFrames) {
+                decoder.release();
+                decoder = null;
+            }
+            return frame;
+        }
+
+        synchronized void recycle() {
+            recycled = true;
+            for (int i = 0; i < frames.length; i++) {
+                if (frames[i] != null) {
+                    frames[i].recycle();
+                    frames[i] = null;
+                }
+            }
+            if (decoder != null) {
+                decoder.release();
+                decoder = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.flutter_pag_plugin;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * 所有FlutterPagPlayer共用的帧时钟，每个vsync统一推进进度并提交到各自的渲染队列
+ * 仅在主线程调用
+ */
+public class PagFrameClock implements Choreographer.FrameCallback {
+    // 预算模式下每个播放器的最低帧率
+    private static final float MIN_BUDGET_FPS = 15;
+
+    private static PagFrameClock instance;
+
+    private final ArrayList<FlutterPagPlayer> players = new ArrayList<>();
+    private FlutterPagPlayer[] snapshot = new FlutterPagPlayer[0];
+    private boolean scheduled;
+    // 应用退到后台时暂停
+    private boolean paused;
+    private boolean attached;
+    // 所有播放器每秒渲染帧数的总预算，<=0表示不限制
+    private int frameBudget;
+    // 已start未stop的Activity，为空时视为应用在后台
+    private final HashSet<Activity> startedActivities = new HashSet<>();
+
+    private PagFrameClock() {
+    }
+
+    public static PagFrameClock getInstance() {
+        if (instance == null) {
+            instance = new PagFrameClock();
+        }
+        return instance;
+    }
+
+    void add(FlutterPagPlayer player) {
+        if (!players.contains(player)) {
+            players.add(player);
+        }
+        schedule();
+    }
+
+    void remove(FlutterPagPlayer player) {
+        players.remove(player);
+    }
+
+    int activeCount() {
+        return players.size();
+    }
+
+    void setFrameBudget(int frameBudget) {
+        this.frameBudget = frameBudget;
+    }
+
+    // 同时播放的动画较多时按总预算平分帧率，返回0表示不限制
+    float budgetFps() {
+        int count = players.size();
+        if (frameBudget <= 0 || count == 0) {
+            return 0;
+        }
+        return Math.max(MIN_BUDGET_FPS, (float) frameBudget / count);
+    }
+
+    // 监听应用前后台切换，多个引擎共用同一个时钟，只注册一次
+    void attach(Context context) {
+        if (attached || !(context.getApplicationContext() instanceof Application)) {
+            return;
+        }
+        attached = true;
+        ((Application) context.getApplicationContext()).registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityStarted(Activity activity) {
+                startedActivities.add(activity);
+                setPaused(false);
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+                // 注册前已启动且未经onAttachedToActivity补充的Activity不在集合中，其停止时不做判断，避免误暂停
+                if (startedActivities.remove(activity) && startedActivities.isEmpty()) {
+                    setPaused(true);
+                }
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                startedActivities.remove(activity);
+            }
+        });
+        // 在后台attach（如预热的引擎）时直接暂停，之后有Activity启动时恢复
+        if (!isProcessVisible()) {
+            setPaused(true);
+        }
+    }
+
+    // 引擎在宿主Activity启动之后才attach时（如后添加的FlutterFragment、缓存的引擎），该Activity收不到onActivityStarted
+    // 按进程当前是否可见补充记录，之后其停止时才能正常暂停
+    void onAttachedToActivity(Activity activity) {
+        if (!attached || activity == null || activity.isFinishing() || !isProcessVisible()) {
+            return;
+        }
+        startedActivities.add(activity);
+        setPaused(false);
+    }
+
+    private static boolean isProcessVisible() {
+        ActivityManager.RunningAppProcessInfo info = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(info);
+        return info.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+    }
+
+    // 暂停期间不推进进度，恢复后各播放器从暂停时的进度继续
+    void setPaused(boolean paused) {
+        if (this.paused == paused) {
+            return;
+        }
+        this.paused = paused;
+        if (paused) {
+            if (scheduled) {
+                scheduled = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        } else {
+            for (FlutterPagPlayer player : players) {
+                player.resetFrameTime();
+            }
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (!scheduled && !paused && !players.isEmpty()) {
+            scheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled = false;
+        // advance中可能因播放结束移除自身，遍历快照
+        snapshot = players.toArray(snapshot);
+        int count = players.size();
+        for (int i = 0; i < count; i++) {
+            FlutterPagPlayer player = snapshot[i];
+            snapshot[i] = null;
+            if (player.advance(frameTimeNanos)) {
+                player.flush();
+            }
+        }
+        schedule();
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.flutter_pag_plugin;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * 一次initPag请求，保证只回复一次
+ * 取消后立即回复null，之后各阶段检查isCancelled丢弃过期结果，仅在主线程调用
+ */
+class PagInitRequest implements MethodChannel.Result {
+    final int requestId;
+    final MethodCall call;
+    private final MethodChannel.Result result;
+    private final Runnable onDone;
+    private boolean replied;
+    private boolean cancelled;
+    // 所在的资源加载，用于取消
+    String loadKey;
+    final PagLoadTrace trace = new PagLoadTrace();
+
+    PagInitRequest(int requestId, MethodCall call, MethodChannel.Result result, Runnable onDone) {
+        this.requestId = requestId;
+        this.call = call;
+        this.result = result;
+        this.onDone = onDone;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        cancelled = true;
+        success(null);
+    }
+
+    private boolean markReplied(boolean success) {
+        if (replied) {
+            return false;
+        }
+        replied = true;
+        trace.finish(success && !cancelled);
+        onDone.run();
+        return true;
+    }
+
+    @Override
+    public void success(Object value) {
+        if (markReplied(value != null)) {
+            result.success(value);
+        }
+    }
+
+    @Override
+    public void error(String errorCode, String errorMessage, Object errorDetails) {
+        if (markReplied(false)) {
+            result.error(errorCode, errorMessage, errorDetails);
+        }
+    }
+
+    @Override
+    public void notImplemented() {
+        if (markReplied(false)) {
+            result.notImplemented();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.flutter_pag_plugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * initPag分阶段耗时统计：各阶段及各数据来源总耗时的p50/p95/p99，以及最近若干次的明细
+ * 分位数基于最近SAMPLE_SIZE个样本计算
+ */
+public class PagLoadMetrics {
+    private static final int SAMPLE_SIZE = 256;
+    private static final int RECENT_SIZE = 20;
+
+    private static final PagLoadMetrics instance = new PagLoadMetrics();
+
+    private final Map<String, Histogram> stageHistograms = new LinkedHashMap<>();
+    private final Map<String, Histogram> tierHistograms = new LinkedHashMap<>();
+    private final ArrayDeque<Map<String, Object>> recent = new ArrayDeque<>();
+
+    private PagLoadMetrics() {
+    }
+
+    public static PagLoadMetrics getInstance() {
+        return instance;
+    }
+
+    synchronized void record(String tier, Map<String, Long> stages) {
+        Map<String, Object> trace = new HashMap<>();
+        Map<String, Object> stageMs = new HashMap<>();
+        for (Map.Entry<String, Long> entry : stages.entrySet()) {
+            histogram(stageHistograms, entry.getKey()).add(entry.getValue());
+            stageMs.put(entry.getKey(), entry.getValue() / 1e6);
+        }
+        Long total = stages.get(PagLoadTrace.STAGE_TOTAL);
+        if (total != null) {
+            histogram(tierHistograms, tier).add(total);
+        }
+        trace.put("tier", tier);
+        trace.put("stages", stageMs);
+        if (recent.size() >= RECENT_SIZE) {
+            recent.pollFirst();
+        }
+        recent.addLast(trace);
+    }
+
+    public synchronized void reset() {
+        stageHistograms.clear();
+        tierHistograms.clear();
+        recent.clear();
+    }
+
+    /**
+     * @return stages：各阶段耗时分布；tiers：各数据来源的总耗时分布；recent：最近的单次明细，单位均为毫秒
+     */
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("stages", toMap(stageHistograms));
+        map.put("tiers", toMap(tierHistograms));
+        map.put("recent", new ArrayList<>(recent));
+        return map;
+    }
+
+    private static Map<String, Object> toMap(Map<String, Histogram> histograms) {
+        Map<String, Object> map = new HashMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return map;
+    }
+
+    private static Histogram histogram(Map<String, Histogram> histograms, String key) {
+        Histogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = new Histogram();
+            histograms.put(key, histogram);
+        }
+        return histogram;
+    }
+
+    private static final class Histogram {
+        // 环形缓冲保存最近的样本
+        private final long[] samples = new long[SAMPLE_SIZE];
+        private long count;
+        private long maxNs;
+
+        void add(long valueNs) {
+            samples[(int) (count % SAMPLE_SIZE)] = valueNs;
+            count++;
+            maxNs = Math.max(maxNs, valueNs);
+        }
+
+        Map<String, Object> toMap() {
+            long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, SAMPLE_SIZE));
+            Arrays.sort(sorted);
+            Map<String, Object> map = new HashMap<>();
+            map.put("count", count);
+            map.put("p50", percentile(sorted, 0.5));
+            map.put("p95", percentile(sorted, 0.95));
+            map.put("p99", percentile(sorted, 0.99));
+            map.put("max", maxNs / 1e6);
+            return map;
+        }
+
+        // nearest-rank
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0.0;
+            }
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.flutter_pag_plugin;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单次initPag的分阶段耗时，各阶段可能在不同线程中记录
+ * 成功回复时汇总到PagLoadMetrics，取消或失败的请求不计入
+ */
+class PagLoadTrace {
+    // 读取数据（内存/硬盘/网络）
+    static final String STAGE_LOAD = "load";
+    // PAGFile解析，asset资源包含读取
+    static final String STAGE_PARSE = "parse";
+    // 纹理分配
+    static final String STAGE_TEXTURE = "texture";
+    // 播放器初始化及buffer分配
+    static final String STAGE_INIT = "init";
+    // 首帧flush，回复不等待首帧，该阶段可能在回复之后记录
+    static final String STAGE_FIRST_FRAME = "firstFrame";
+    // 从收到请求到回复，不含firstFrame
+    static final String STAGE_TOTAL = "total";
+
+    // 数据来源，composition表示命中PagCompositionCache无需解析
+    static final String TIER_COMPOSITION = "composition";
+    static final String TIER_BYTES = "bytes";
+    static final String TIER_ASSET = "asset";
+    static final String TIER_MEMORY = "memory";
+    static final String TIER_DISK = "disk";
+    static final String TIER_NETWORK = "network";
+
+    private static final String SECTION_NAME = "PAG#init";
+    private static final AtomicInteger cookies = new AtomicInteger();
+
+    private final long startNs = System.nanoTime();
+    private final int cookie = cookies.incrementAndGet();
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+    private String tier = TIER_COMPOSITION;
+    private boolean finished;
+    private boolean succeeded;
+    private boolean awaitingFirstFrame;
+    private boolean recorded;
+
+    PagLoadTrace() {
+        // 跨线程的整体耗时使用异步section
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(SECTION_NAME, cookie);
+        }
+    }
+
+    static String tierOf(int source) {
+        switch (source) {
+            case DataLoadHelper.SOURCE_MEMORY:
+                return TIER_MEMORY;
+            case DataLoadHelper.SOURCE_DISK:
+                return TIER_DISK;
+            default:
+                return TIER_NETWORK;
+        }
+    }
+
+    synchronized void setTier(String tier) {
+        this.tier = tier;
+    }
+
+    // 回复后还会记录firstFrame，两者都完成后才汇总
+    synchronized void expectFirstFrame() {
+        awaitingFirstFrame = true;
+    }
+
+    void addStage(String stage, long durationNs) {
+        synchronized (this) {
+            stages.put(stage, durationNs);
+            if (STAGE_FIRST_FRAME.equals(stage)) {
+                awaitingFirstFrame = false;
+            }
+        }
+        recordIfComplete();
+    }
+
+    // 只生效一次
+    void finish(boolean success) {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            succeeded = success;
+            stages.put(STAGE_TOTAL, System.nanoTime() - startNs);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(SECTION_NAME, cookie);
+        }
+        recordIfComplete();
+    }
+
+    private void recordIfComplete() {
+        Map<String, Long> result;
+        String resultTier;
+        synchronized (this) {
+            if (!finished || !succeeded || awaitingFirstFrame || recorded) {
+                return;
+            }
+            recorded = true;
+            result = new LinkedHashMap<>(stages);
+            resultTier = tier;
+        }
+        PagLoadMetrics.getInstance().record(resultTier, result);
+    }
+}
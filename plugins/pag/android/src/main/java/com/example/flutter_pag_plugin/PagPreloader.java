@@ -0,0 +1,250 @@
+package com.example.flutter_pag_plugin;
+
+import android.content.res.AssetManager;
+import android.os.Process;
+import android.util.Log;
+
+import org.libpag.PAGFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kotlin.Unit;
+
+/**
+ * PAG资源预加载，在低优先级后台线程中填充硬盘/内存缓存，可选预解析到PagCompositionCache
+ * url下载按priority在DataLoadHelper的低优先级IO线程中排队，不占用本线程池；同一批次可通过cancel取消
+ */
+public class PagPreloader {
+    private static final String TAG = "PagPreloader";
+    private static final int THREAD_COUNT = 2;
+
+    private static volatile PagPreloader instance;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger batchIds = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<Integer, List<PreloadTask>> batches = new ConcurrentHashMap<>();
+
+    private PagPreloader() {
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "pag-preload-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static PagPreloader getInstance() {
+        if (instance == null) {
+            synchronized (PagPreloader.class) {
+                if (instance == null) {
+                    instance = new PagPreloader();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 预加载一批资源
+     *
+     * @param items 待加载资源，priority越大越先执行
+     * @param parse 是否预解析为PAGFile
+     * @return 批次id，用于取消
+     */
+    public int preload(List<Item> items, boolean parse, AssetManager assets) {
+        final int batchId = batchIds.incrementAndGet();
+        final List<PreloadTask> tasks = new ArrayList<>();
+        for (Item item : items) {
+            tasks.add(new PreloadTask(batchId, item, parse, assets, sequence.getAndIncrement()));
+        }
+        batches.put(batchId, tasks);
+        for (PreloadTask task : tasks) {
+            executor.execute(task);
+        }
+        return batchId;
+    }
+
+    // 取消批次中的任务，进行中的下载在没有其他请求等待时中断
+    public void cancel(int batchId) {
+        List<PreloadTask> tasks = batches.remove(batchId);
+        if (tasks == null) {
+            return;
+        }
+        for (PreloadTask task : tasks) {
+            task.cancel();
+            executor.remove(task);
+        }
+    }
+
+    private void onTaskFinished(PreloadTask task) {
+        List<PreloadTask> tasks = batches.get(task.batchId);
+        if (tasks == null) {
+            return;
+        }
+        synchronized (tasks) {
+            task.finished = true;
+            for (PreloadTask t : tasks) {
+                if (!t.finished) {
+                    return;
+                }
+            }
+        }
+        batches.remove(task.batchId);
+    }
+
+    // url与assetKey二选一，assetKey为已解析的flutter资源路径
+    public static final class Item {
+        final String url;
+        final String assetKey;
+        final int priority;
+
+        public Item(String url, String assetKey, int priority) {
+            this.url = url;
+            this.assetKey = assetKey;
+            this.priority = priority;
+        }
+    }
+
+    private final class PreloadTask implements Runnable, Comparable<PreloadTask> {
+        final int batchId;
+        final Item item;
+        final boolean parse;
+        final AssetManager assets;
+        final long sequence;
+        volatile boolean cancelled;
+        volatile LoadTask loadTask;
+        boolean finished;
+
+        PreloadTask(int batchId, Item item, boolean parse, AssetManager assets, long sequence) {
+            this.batchId = batchId;
+            this.item = item;
+            this.parse = parse;
+            this.assets = assets;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            // url任务在加载回调中结束
+            boolean pending = false;
+            try {
+                if (!cancelled) {
+                    if (item.url != null) {
+                        pending = preloadUrl();
+                    } else if (item.assetKey != null && parse) {
+                        preloadAsset();
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "preload error: " + e);
+            } finally {
+                if (!pending) {
+                    onTaskFinished(this);
+                }
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            LoadTask task = loadTask;
+            if (task != null) {
+                task.cancel();
+            }
+        }
+
+        // 返回true表示已发起加载，完成后回调onTaskFinished
+        private boolean preloadUrl() {
+            final String cacheKey = PagCompositionCache.urlKey(item.url);
+            if (parse && DataLoadHelper.INSTANCE.canUseCached(item.url) && isCached(cacheKey)) {
+                return false;
+            }
+            LoadTask task;
+            if (parse) {
+                // 回调可能早于loadPagFile返回，此时task尚未赋值，解析结果留到返回后处理
+                final LoadTask[] holder = new LoadTask[1];
+                final PAGFile[] syncFile = new PAGFile[1];
+                final boolean[] syncDone = new boolean[1];
+                task = DataLoadHelper.INSTANCE.loadPagFile(item.url, file -> {
+                    LoadTask self;
+                    synchronized (holder) {
+                        self = holder[0];
+                        if (self == null) {
+                            syncFile[0] = file;
+                            syncDone[0] = true;
+                            return Unit.INSTANCE;
+                        }
+                    }
+                    if (file != null) {
+                        warmComposition(cacheKey, file, self.getInfo().getSourceBytes());
+                    }
+                    onTaskFinished(this);
+                    return Unit.INSTANCE;
+                }, DataLoadHelper.FROM_PLUGIN, true, item.priority);
+                synchronized (holder) {
+                    if (!syncDone[0]) {
+                        holder[0] = task;
+                    }
+                }
+                if (syncDone[0]) {
+                    if (syncFile[0] != null) {
+                        warmComposition(cacheKey, syncFile[0], task.getInfo().getSourceBytes());
+                    }
+                    return false;
+                }
+            } else {
+                task = DataLoadHelper.INSTANCE.prefetch(item.url, success -> {
+                    onTaskFinished(this);
+                    return Unit.INSTANCE;
+                }, DataLoadHelper.FROM_PLUGIN, item.priority);
+            }
+            loadTask = task;
+            // 发起加载期间被取消
+            if (cancelled) {
+                task.cancel();
+            }
+            return true;
+        }
+
+        private void preloadAsset() {
+            final String cacheKey = PagCompositionCache.assetKey(item.assetKey);
+            if (isCached(cacheKey)) {
+                return;
+            }
+            PagCompositionCache.AssetFile asset = PagCompositionCache.loadAsset(assets, item.assetKey);
+            if (asset != null) {
+                warmComposition(cacheKey, asset.file, asset.size);
+            }
+        }
+
+        private boolean isCached(String cacheKey) {
+            return PagCompositionCache.getInstance().contains(cacheKey);
+        }
+
+        // 放入缓存后立即归还引用，条目保留在LRU中等待使用
+        private void warmComposition(String cacheKey, PAGFile file, long sourceBytes) {
+            PagCompositionCache cache = PagCompositionCache.getInstance();
+            cache.put(cacheKey, file, PagCompositionCache.estimateSize(file, sourceBytes));
+            cache.release(cacheKey);
+        }
+
+        @Override
+        public int compareTo(PreloadTask other) {
+            if (item.priority != other.item.priority) {
+                return item.priority > other.item.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.flutter_pag_plugin;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 渲染统计：队列深度、丢弃帧数、flush耗时
+ */
+public class PagRenderMetrics {
+    private static final PagRenderMetrics instance = new PagRenderMetrics();
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    // 从提交到渲染完成的耗时
+    private final AtomicLong totalLatencyNs = new AtomicLong();
+    private final AtomicLong maxLatencyNs = new AtomicLong();
+    // PAGPlayer.flush本身的耗时
+    private final AtomicLong totalRenderNs = new AtomicLong();
+
+    private PagRenderMetrics() {
+    }
+
+    public static PagRenderMetrics getInstance() {
+        return instance;
+    }
+
+    void onFrameDropped() {
+        droppedFrames.incrementAndGet();
+    }
+
+    void onFlush(long latencyNs, long renderNs) {
+        flushCount.incrementAndGet();
+        totalLatencyNs.addAndGet(latencyNs);
+        totalRenderNs.addAndGet(renderNs);
+        long max;
+        do {
+            max = maxLatencyNs.get();
+        } while (latencyNs > max && !maxLatencyNs.compareAndSet(max, latencyNs));
+    }
+
+    public void reset() {
+        flushCount.set(0);
+        droppedFrames.set(0);
+        totalLatencyNs.set(0);
+        maxLatencyNs.set(0);
+        totalRenderNs.set(0);
+    }
+
+    public Map<String, Object> toMap() {
+        WorkThreadExecutor executor = WorkThreadExecutor.getInstance();
+        long count = flushCount.get();
+        Map<String, Object> map = new HashMap<>();
+        map.put("queueDepth", executor.getQueueDepth());
+        map.put("workerCount", executor.getWorkerCount());
+        map.put("flushCount", count);
+        map.put("droppedFrames", droppedFrames.get());
+        map.put("avgFlushLatencyMs", count == 0 ? 0.0 : totalLatencyNs.get() / (double) count / 1e6);
+        map.put("maxFlushLatencyMs", maxLatencyNs.get() / 1e6);
+        map.put("avgRenderTimeMs", count == 0 ? 0.0 : totalRenderNs.get() / (double) count / 1e6);
+        return map;
+    }
+}
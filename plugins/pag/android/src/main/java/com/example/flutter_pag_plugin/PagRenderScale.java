@@ -0,0 +1,113 @@
+package com.example.flutter_pag_plugin;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+/**
+ * 计算纹理buffer尺寸：按显示尺寸渲染，开启降级后在发热或内存紧张时进一步缩小
+ */
+public class PagRenderScale {
+    private static final float SCALE_MODERATE = 0.75f;
+    private static final float SCALE_SEVERE = 0.5f;
+    // 内存降级持续时间，期间没有新的内存告警则恢复
+    private static final long MEMORY_RECOVERY_MS = 60 * 1000L;
+
+    private static final PagRenderScale instance = new PagRenderScale();
+
+    private volatile boolean downscaleEnabled;
+    private volatile float thermalScale = 1f;
+    private volatile float memoryScale = 1f;
+    private volatile long memoryPressureTime;
+    private boolean attached;
+
+    private PagRenderScale() {
+    }
+
+    public static PagRenderScale getInstance() {
+        return instance;
+    }
+
+    // 注册温控监听，Android Q以下仅根据内存状态降级
+    synchronized void attach(Context context) {
+        if (attached || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return;
+        }
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) {
+            return;
+        }
+        attached = true;
+        powerManager.addThermalStatusListener(status -> {
+            if (status >= PowerManager.THERMAL_STATUS_SEVERE) {
+                thermalScale = SCALE_SEVERE;
+            } else if (status >= PowerManager.THERMAL_STATUS_MODERATE) {
+                thermalScale = SCALE_MODERATE;
+            } else {
+                thermalScale = 1f;
+            }
+        });
+    }
+
+    public void setDownscaleEnabled(boolean enabled) {
+        downscaleEnabled = enabled;
+    }
+
+    // 前台运行时的内存告警触发降级；进入后台时恢复，回到前台后新建的纹理按原尺寸分配
+    void onTrimMemory(int level) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            setMemoryScale(SCALE_SEVERE);
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            setMemoryScale(SCALE_MODERATE);
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            memoryScale = 1f;
+        }
+    }
+
+    private void setMemoryScale(float scale) {
+        memoryPressureTime = SystemClock.elapsedRealtime();
+        memoryScale = scale;
+    }
+
+    public float getPressureScale() {
+        if (!downscaleEnabled) {
+            return 1f;
+        }
+        float scale = memoryScale;
+        if (scale < 1f && SystemClock.elapsedRealtime() - memoryPressureTime > MEMORY_RECOVERY_MS) {
+            // 超时未再收到告警
+            memoryScale = scale = 1f;
+        }
+        return Math.min(thermalScale, scale);
+    }
+
+    /**
+     * 计算buffer尺寸，保持composition宽高比且不超过其原始尺寸
+     *
+     * @param targetWidth  显示宽度（像素），<=0表示不限制
+     * @param targetHeight 显示高度（像素），<=0表示不限制
+     * @param scale        额外缩放比例，<=0按1处理
+     * @return [width, height]
+     */
+    int[] bufferSize(int compositionWidth, int compositionHeight, int targetWidth, int targetHeight, double scale) {
+        double factor = 1;
+        if (targetWidth > 0 && compositionWidth > 0) {
+            factor = Math.min(factor, (double) targetWidth / compositionWidth);
+        }
+        if (targetHeight > 0 && compositionHeight > 0) {
+            factor = Math.min(factor, (double) targetHeight / compositionHeight);
+        }
+        if (scale > 0) {
+            factor *= Math.min(scale, 1);
+        }
+        factor *= getPressureScale();
+        return new int[]{
+                Math.max(1, (int) Math.round(compositionWidth * factor)),
+                Math.max(1, (int) Math.round(compositionHeight * factor))
+        };
+    }
+}
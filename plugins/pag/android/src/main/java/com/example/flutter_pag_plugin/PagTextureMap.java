@@ -0,0 +1,53 @@
+package com.example.flutter_pag_plugin;
+
+import android.util.LongSparseArray;
+
+/**
+ * 以textureId为key的注册表，key为原始long，查找不装箱
+ * 写入时复制一份LongSparseArray并发布为新的快照，读取（任意线程，包括渲染线程）只访问快照，不加锁
+ * 纹理的创建和释放远少于查找，复制的开销可以忽略
+ */
+public final class PagTextureMap<V> {
+    private volatile LongSparseArray<V> snapshot = new LongSparseArray<>();
+
+    public V get(long textureId) {
+        return snapshot.get(textureId);
+    }
+
+    synchronized void put(long textureId, V value) {
+        LongSparseArray<V> copy = snapshot.clone();
+        copy.put(textureId, value);
+        publish(copy);
+    }
+
+    synchronized V remove(long textureId) {
+        LongSparseArray<V> current = snapshot;
+        int index = current.indexOfKey(textureId);
+        if (index < 0) {
+            return null;
+        }
+        V value = current.valueAt(index);
+        LongSparseArray<V> copy = current.clone();
+        copy.removeAt(index);
+        publish(copy);
+        return value;
+    }
+
+    // 清空并返回清空前的内容
+    synchronized LongSparseArray<V> clear() {
+        LongSparseArray<V> current = snapshot;
+        snapshot = new LongSparseArray<>();
+        return current;
+    }
+
+    // 当前内容，只读，遍历期间不受写入影响
+    LongSparseArray<V> snapshot() {
+        return snapshot;
+    }
+
+    // LongSparseArray删除后延迟整理，读取时可能修改内部数组，发布前先整理，保证快照只读
+    private void publish(LongSparseArray<V> copy) {
+        copy.size();
+        snapshot = copy;
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.flutter_pag_plugin;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 可复用纹理池，按buffer尺寸分桶，尺寸一致时复用可避免重新分配SurfaceTexture的buffer
+ * 空闲超时或系统内存紧张时释放，仅在主线程调用
+ */
+class PagTexturePool {
+    static final long DEFAULT_IDLE_TIMEOUT_MS = 30 * 1000;
+
+    interface Evictor {
+        void onEvict(long textureId);
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Evictor evictor;
+    // 按放入顺序排列，最久未使用的在前
+    private final LinkedHashMap<Long, PooledEntry> entries = new LinkedHashMap<>();
+    private final HashMap<Long, ArrayDeque<PooledEntry>> buckets = new HashMap<>();
+    private int maxSize;
+    private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private boolean sweepScheduled;
+
+    private long hitCount;
+    private long reallocCount;
+    private long missCount;
+    private long evictionCount;
+
+    private final Runnable sweep = new Runnable() {
+        @Override
+        public void run() {
+            sweepScheduled = false;
+            evictIdle();
+            scheduleSweep();
+        }
+    };
+
+    PagTexturePool(int maxSize, Evictor evictor) {
+        this.maxSize = maxSize;
+        this.evictor = evictor;
+    }
+
+    private static long sizeKey(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    // 优先取相同尺寸的纹理，没有时取最久未使用的纹理（需重新分配buffer），池为空返回-1
+    long acquire(int width, int height) {
+        ArrayDeque<PooledEntry> bucket = buckets.get(sizeKey(width, height));
+        PooledEntry entry = bucket == null ? null : bucket.pollLast();
+        if (entry != null) {
+            hitCount++;
+            if (bucket.isEmpty()) {
+                buckets.remove(sizeKey(width, height));
+            }
+            entries.remove(entry.textureId);
+            return entry.textureId;
+        }
+        if (entries.isEmpty()) {
+            missCount++;
+            return -1;
+        }
+        reallocCount++;
+        entry = entries.values().iterator().next();
+        remove(entry);
+        return entry.textureId;
+    }
+
+    void put(long textureId, int width, int height) {
+        if (maxSize <= 0) {
+            evictor.onEvict(textureId);
+            evictionCount++;
+            return;
+        }
+        PooledEntry entry = new PooledEntry(textureId, width, height, SystemClock.uptimeMillis());
+        entries.put(textureId, entry);
+        ArrayDeque<PooledEntry> bucket = buckets.get(entry.sizeKey);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(entry.sizeKey, bucket);
+        }
+        bucket.addLast(entry);
+        trimToSize(maxSize);
+        scheduleSweep();
+    }
+
+    boolean contains(long textureId) {
+        return entries.containsKey(textureId);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    void setIdleTimeout(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+        handler.removeCallbacks(sweep);
+        sweepScheduled = false;
+        evictIdle();
+        scheduleSweep();
+    }
+
+    // 释放全部空闲纹理
+    void evictAll() {
+        trimToSize(0);
+    }
+
+    // 仅清空记录，纹理由调用方统一释放
+    void clear() {
+        entries.clear();
+        buckets.clear();
+        handler.removeCallbacks(sweep);
+        sweepScheduled = false;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("size", entries.size());
+        map.put("maxSize", maxSize);
+        map.put("bucketCount", buckets.size());
+        map.put("hitCount", hitCount);
+        map.put("reallocCount", reallocCount);
+        map.put("missCount", missCount);
+        map.put("evictionCount", evictionCount);
+        return map;
+    }
+
+    private void trimToSize(int targetSize) {
+        Iterator<PooledEntry> iterator = entries.values().iterator();
+        while (entries.size() > targetSize && iterator.hasNext()) {
+            PooledEntry entry = iterator.next();
+            iterator.remove();
+            removeFromBucket(entry);
+            evict(entry);
+        }
+    }
+
+    private void evictIdle() {
+        long deadline = SystemClock.uptimeMillis() - idleTimeoutMs;
+        Iterator<PooledEntry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            PooledEntry entry = iterator.next();
+            if (entry.idleSince > deadline) {
+                break;
+            }
+            iterator.remove();
+            removeFromBucket(entry);
+            evict(entry);
+        }
+    }
+
+    private void scheduleSweep() {
+        if (!sweepScheduled && !entries.isEmpty()) {
+            sweepScheduled = true;
+            long oldest = entries.values().iterator().next().idleSince;
+            long delay = Math.max(0, oldest + idleTimeoutMs - SystemClock.uptimeMillis());
+            handler.postDelayed(sweep, delay);
+        }
+    }
+
+    private void remove(PooledEntry entry) {
+        entries.remove(entry.textureId);
+        removeFromBucket(entry);
+    }
+
+    private void removeFromBucket(PooledEntry entry) {
+        ArrayDeque<PooledEntry> bucket = buckets.get(entry.sizeKey);
+        if (bucket != null) {
+            bucket.remove(entry);
+            if (bucket.isEmpty()) {
+                buckets.remove(entry.sizeKey);
+            }
+        }
+    }
+
+    private void evict(PooledEntry entry) {
+        evictionCount++;
+        evictor.onEvict(entry.textureId);
+    }
+
+    private static final class PooledEntry {
+        final long textureId;
+        final long sizeKey;
+        final long idleSince;
+
+        PooledEntry(long textureId, int width, int height, long idleSince) {
+            this.textureId = textureId;
+            this.sizeKey = sizeKey(width, height);
+            this.idleSince = idleSince;
+        }
+    }
+}
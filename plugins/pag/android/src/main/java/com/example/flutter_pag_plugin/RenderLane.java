@@ -0,0 +1,49 @@
+package com.example.flutter_pag_plugin;
+
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 单个播放器的串行任务队列
+ * 同一纹理的任务按提交顺序执行且不会重叠，不同纹理的队列在WorkThreadExecutor上并行执行
+ */
+class RenderLane implements Runnable {
+    private static final String TAG = "RenderLane";
+
+    private final ConcurrentLinkedQueue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile int priority = WorkThreadExecutor.PRIORITY_NORMAL;
+
+    void post(Runnable task, int priority) {
+        if (!WorkThreadExecutor.multiThread) {
+            task.run();
+            return;
+        }
+        this.priority = priority;
+        mailbox.offer(task);
+        scheduleIfNeeded();
+    }
+
+    private void scheduleIfNeeded() {
+        if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+            WorkThreadExecutor.getInstance().post(this, priority);
+        }
+    }
+
+    @Override
+    public void run() {
+        Runnable task;
+        while ((task = mailbox.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "render task error: " + e);
+            }
+        }
+        scheduled.set(false);
+        // 释放标记前可能有新任务入队
+        scheduleIfNeeded();
+    }
+}
@@ -1,19 +1,36 @@
 package com.example.flutter_pag_plugin;
 
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class WorkThreadExecutor {
+    // 任务优先级，数值越小越先执行
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIDDEN = 2;
+
     private static volatile WorkThreadExecutor instance;
-    private final ExecutorService executor;
+    private final ThreadPoolExecutor executor;
     private final ExecutorService singleThreadExecutor;
+    private final AtomicLong sequence = new AtomicLong();
+    private final int workerCount;
     public static boolean multiThread = true;
     private WorkThreadExecutor() {
-        executor = Executors.newCachedThreadPool();
+        // 固定线程数，按核数确定，避免掉帧时无限创建线程
+        workerCount = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+        executor = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new RenderThreadFactory());
         singleThreadExecutor = Executors.newSingleThreadExecutor();
     }
 
@@ -33,8 +50,12 @@ public class WorkThreadExecutor {
     }
 
     public void post(Runnable task) {
+        post(task, PRIORITY_NORMAL);
+    }
+
+    public void post(Runnable task, int priority) {
         if (multiThread) {
-            executor.execute(task);
+            executor.execute(new PriorityTask(task, priority, sequence.getAndIncrement()));
         } else {
             task.run();
         }
@@ -42,10 +63,59 @@ public class WorkThreadExecutor {
 
     public void postInCertainThread(Runnable task) {
         if (multiThread) {
-            executor.execute(task);
+            executor.execute(new PriorityTask(task, PRIORITY_NORMAL, sequence.getAndIncrement()));
         } else {
             task.run();
         }
     }
 
+    // 当前排队等待的任务数
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    // 优先级相同时按提交顺序执行
+    private static final class PriorityTask implements Runnable, Comparable<PriorityTask> {
+        private final Runnable task;
+        private final int priority;
+        private final long sequence;
+
+        PriorityTask(Runnable task, int priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PriorityTask other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static final class RenderThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                runnable.run();
+            }, "pag-render-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 }
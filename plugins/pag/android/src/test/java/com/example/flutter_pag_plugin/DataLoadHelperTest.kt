@@ -0,0 +1,193 @@
+package com.example.flutter_pag_plugin
+
+import com.sun.net.httpserver.Headers
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+import java.util.UUID
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+//硬盘缓存的校验及过期策略，使用本地HttpServer模拟服务器
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34])
+class DataLoadHelperTest {
+    private lateinit var server: HttpServer
+    private lateinit var url: String
+    private var serverStopped = false
+    private var retryBaseDelayMs = 0L
+
+    // 收到的请求头，按顺序
+    private val requests = CopyOnWriteArrayList<Headers>()
+
+    // 当前返回的内容及响应头，ETag匹配时返回304
+    @Volatile
+    private var body = "v1".toByteArray()
+    @Volatile
+    private var etag = "\"1\""
+    @Volatile
+    private var headers = listOf<Pair<String, String>>()
+
+    @Before
+    fun setUp() {
+        DataLoadHelper.initDiskCache(RuntimeEnvironment.getApplication())
+        retryBaseDelayMs = DataLoadHelper.retryBaseDelayMs
+        DataLoadHelper.retryBaseDelayMs = 10
+        DataLoadHelper.staleWhileRevalidate = false
+        DataLoadHelper.defaultMaxAgeMs = -1
+        server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0)
+        server.createContext("/") { exchange ->
+            requests.add(exchange.requestHeaders)
+            respond(exchange)
+            exchange.close()
+        }
+        server.start()
+        // DataLoadHelper为单例，各测试使用不同的url避免共享缓存
+        url = "http://127.0.0.1:${server.address.port}/${UUID.randomUUID()}.pag"
+    }
+
+    @After
+    fun tearDown() {
+        stopServer()
+        DataLoadHelper.retryBaseDelayMs = retryBaseDelayMs
+    }
+
+    @Test
+    fun revalidatesThenReplacesBody() {
+        headers = listOf("Cache-Control" to "max-age=0")
+        assertArrayEquals("v1".toByteArray(), load())
+        assertNull(requests[0].getFirst("If-None-Match"))
+
+        // 过期后发送条件请求，304时继续使用硬盘缓存
+        assertArrayEquals("v1".toByteArray(), load())
+        assertEquals(2, requests.size)
+        assertEquals("\"1\"", requests[1].getFirst("If-None-Match"))
+
+        // 内容更新时返回新的body并通知失效
+        val invalidated = CopyOnWriteArrayList<String>()
+        val listener: (String) -> Unit = { invalidated.add(it) }
+        DataLoadHelper.addInvalidationListener(listener)
+        try {
+            body = "v2".toByteArray()
+            etag = "\"2\""
+            assertArrayEquals("v2".toByteArray(), load())
+            assertEquals(3, requests.size)
+            assertEquals(listOf(url), invalidated)
+        } finally {
+            DataLoadHelper.removeInvalidationListener(listener)
+        }
+
+        // 新的校验字段已写入硬盘缓存
+        assertArrayEquals("v2".toByteArray(), load())
+        assertEquals("\"2\"", requests[3].getFirst("If-None-Match"))
+    }
+
+    @Test
+    fun maxAgeKeepsEntryFresh() {
+        headers = listOf("Cache-Control" to "max-age=3600")
+        assertArrayEquals("v1".toByteArray(), load())
+        assertArrayEquals("v1".toByteArray(), load())
+        assertEquals(1, requests.size)
+        assertTrue(DataLoadHelper.canUseCached(url))
+    }
+
+    @Test
+    fun futureExpiresKeepsEntryFresh() {
+        val format = SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US)
+        format.timeZone = TimeZone.getTimeZone("GMT")
+        headers = listOf("Expires" to format.format(Date(System.currentTimeMillis() + 3600 * 1000L)))
+        assertArrayEquals("v1".toByteArray(), load())
+        assertArrayEquals("v1".toByteArray(), load())
+        assertEquals(1, requests.size)
+        assertTrue(DataLoadHelper.canUseCached(url))
+    }
+
+    @Test
+    fun expiresZeroIsExpired() {
+        headers = listOf("Expires" to "0")
+        assertArrayEquals("v1".toByteArray(), load())
+        assertFalse(DataLoadHelper.canUseCached(url))
+        assertArrayEquals("v1".toByteArray(), load())
+        assertEquals(2, requests.size)
+        assertEquals("\"1\"", requests[1].getFirst("If-None-Match"))
+    }
+
+    @Test
+    fun noCacheRevalidatesEveryLoad() {
+        headers = listOf("Cache-Control" to "no-cache")
+        assertArrayEquals("v1".toByteArray(), load())
+        assertFalse(DataLoadHelper.canUseCached(url))
+        assertArrayEquals("v1".toByteArray(), load())
+        assertEquals(2, requests.size)
+        assertEquals("\"1\"", requests[1].getFirst("If-None-Match"))
+    }
+
+    @Test
+    fun noStoreIsNotWrittenToDisk() {
+        headers = listOf("Cache-Control" to "no-store")
+        assertArrayEquals("v1".toByteArray(), load())
+        assertFalse(DataLoadHelper.canUseCached(url))
+        // 硬盘中没有条目，不会带校验字段
+        assertArrayEquals("v1".toByteArray(), load())
+        assertEquals(2, requests.size)
+        assertNull(requests[1].getFirst("If-None-Match"))
+    }
+
+    @Test
+    fun networkFailureFallsBackToStaleEntry() {
+        headers = listOf("Cache-Control" to "max-age=0")
+        assertArrayEquals("v1".toByteArray(), load())
+        stopServer()
+        // 重试失败后使用过期的硬盘缓存
+        assertArrayEquals("v1".toByteArray(), load())
+    }
+
+    private fun respond(exchange: HttpExchange) {
+        val currentEtag = etag
+        headers.forEach { exchange.responseHeaders.add(it.first, it.second) }
+        exchange.responseHeaders.add("ETag", currentEtag)
+        if (exchange.requestHeaders.getFirst("If-None-Match") == currentEtag) {
+            exchange.sendResponseHeaders(304, -1)
+            return
+        }
+        val bytes = body
+        exchange.sendResponseHeaders(200, bytes.size.toLong())
+        exchange.responseBody.write(bytes)
+    }
+
+    private fun load(): ByteArray? {
+        val latch = CountDownLatch(1)
+        var result: ByteArray? = null
+        DataLoadHelper.loadPag(url, {
+            result = it
+            latch.countDown()
+        })
+        assertTrue(latch.await(10, TimeUnit.SECONDS))
+        return result
+    }
+
+    private fun stopServer() {
+        if (!serverStopped) {
+            serverStopped = true
+            server.stop(0)
+        }
+    }
+}
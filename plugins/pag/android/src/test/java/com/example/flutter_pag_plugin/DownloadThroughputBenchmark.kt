@@ -0,0 +1,139 @@
+package com.example.flutter_pag_plugin
+
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.net.HttpURLConnection
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.URL
+import java.util.Random
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+//下载吞吐对比：旧的逐字节拷贝+读盘 与 DataLoadHelper的分块拷贝+预分配tee
+//耗时较长，默认跳过，运行方式：./gradlew test -PpagBenchmark --tests '*DownloadThroughputBenchmark'
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34])
+class DownloadThroughputBenchmark {
+    private lateinit var server: HttpServer
+    private lateinit var baseUrl: String
+    private var fileLoadThreshold = 0L
+    private val payloads = HashMap<Int, ByteArray>()
+
+    @Before
+    fun setUp() {
+        assumeTrue(System.getProperty("pag.benchmark") != null)
+        DataLoadHelper.initDiskCache(RuntimeEnvironment.getApplication(), 256 * 1024 * 1024L)
+        // 测量tee到内存的路径，避免大文件只返回路径
+        fileLoadThreshold = DataLoadHelper.fileLoadThreshold
+        DataLoadHelper.fileLoadThreshold = Long.MAX_VALUE
+        val random = Random(0)
+        SIZES_MB.forEach { mb ->
+            payloads[mb] = ByteArray(mb * 1024 * 1024).also { random.nextBytes(it) }
+        }
+        server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0)
+        // 路径为/<大小>/<随机id>，随机id保证每次都是未缓存的下载
+        server.createContext("/") { exchange ->
+            val bytes = payloads[exchange.requestURI.path.split('/')[1].toInt()]!!
+            exchange.sendResponseHeaders(200, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+        }
+        server.start()
+        baseUrl = "http://127.0.0.1:${server.address.port}"
+    }
+
+    @After
+    fun tearDown() {
+        if (::server.isInitialized) {
+            server.stop(0)
+            DataLoadHelper.fileLoadThreshold = fileLoadThreshold
+        }
+    }
+
+    @Test
+    fun compareThroughput() {
+        val tmpDir = RuntimeEnvironment.getApplication().cacheDir
+        SIZES_MB.forEach { mb ->
+            val expected = payloads[mb]!!
+            val legacy = measure(mb) { url ->
+                legacyDownload(url, File(tmpDir, UUID.randomUUID().toString()))
+            }
+            val streaming = measure(mb) { url -> loadPag(url) }
+            assertArrayEquals(expected, legacyDownload(url(mb), File(tmpDir, "verify")))
+            assertArrayEquals(expected, loadPag(url(mb)))
+            println(String.format("%dMB  legacy %.1f MB/s  streaming %.1f MB/s  (%.2fx)",
+                mb, legacy, streaming, streaming / legacy))
+        }
+    }
+
+    // 返回MB/s，先预热
+    private fun measure(mb: Int, download: (String) -> ByteArray?): Double {
+        repeat(WARMUP) { download(url(mb)) }
+        val start = System.nanoTime()
+        repeat(ITERATIONS) { assertTrue(download(url(mb)) != null) }
+        val seconds = (System.nanoTime() - start) / 1e9
+        return mb.toDouble() * ITERATIONS / seconds
+    }
+
+    private fun url(mb: Int) = "$baseUrl/$mb/${UUID.randomUUID()}"
+
+    private fun loadPag(url: String): ByteArray? {
+        val latch = CountDownLatch(1)
+        var result: ByteArray? = null
+        DataLoadHelper.loadPag(url, {
+            result = it
+            latch.countDown()
+        })
+        assertTrue(latch.await(60, TimeUnit.SECONDS))
+        return result
+    }
+
+    // 原实现：逐字节写入硬盘缓存，再以1KB缓冲读回内存
+    private fun legacyDownload(url: String, file: File): ByteArray {
+        val connection = URL(url).openConnection() as HttpURLConnection
+        try {
+            BufferedInputStream(connection.inputStream, 8 * 1024).use { ins ->
+                BufferedOutputStream(FileOutputStream(file), 8 * 1024).use { out ->
+                    var b: Int
+                    while (ins.read().also { b = it } != -1) {
+                        out.write(b)
+                    }
+                }
+            }
+        } finally {
+            connection.disconnect()
+        }
+        val bos = ByteArrayOutputStream()
+        FileInputStream(file).use { ins ->
+            val buffer = ByteArray(1024)
+            var len: Int
+            while (ins.read(buffer).also { len = it } != -1) {
+                bos.write(buffer, 0, len)
+            }
+        }
+        file.delete()
+        return bos.toByteArray()
+    }
+
+    companion object {
+        private val SIZES_MB = listOf(2, 8)
+        private const val WARMUP = 2
+        private const val ITERATIONS = 5
+    }
+}
@@ -45,6 +45,15 @@ class PAGView extends StatefulWidget {
   /// 加载失败时的默认控件构造器
   final Widget Function(BuildContext context)? defaultBuilder;
 
+  /// 渲染分辨率相对显示尺寸的缩放比例（仅安卓），如0.5表示以一半分辨率渲染，默认不缩放
+  final double? renderScale;
+
+  /// 帧率上限（仅安卓），默认使用动画自身帧率
+  final double? maxFps;
+
+  /// 帧缓存模式（仅安卓），每帧只渲染一次并缓存为位图，后续循环直接绘制缓存，适合列表中大量重复的小型循环动画
+  final bool frameCache;
+
   static const int REPEAT_COUNT_LOOP = -1; //无限循环
   static const int REPEAT_COUNT_DEFAULT = 1; //默认仅播放一次
 
@@ -61,6 +70,9 @@ class PAGView extends StatefulWidget {
     this.onAnimationCancel,
     this.onAnimationRepeat,
     this.defaultBuilder,
+    this.renderScale,
+    this.maxFps,
+    this.frameCache = false,
     Key? key,
   })  : this.bytesData = null,
         this.assetName = null,
@@ -81,6 +93,9 @@ class PAGView extends StatefulWidget {
     this.onAnimationCancel,
     this.onAnimationRepeat,
     this.defaultBuilder,
+    this.renderScale,
+    this.maxFps,
+    this.frameCache = false,
     Key? key,
   })  : this.bytesData = null,
         this.url = null,
@@ -100,6 +115,9 @@ class PAGView extends StatefulWidget {
     this.onAnimationCancel,
     this.onAnimationRepeat,
     this.defaultBuilder,
+    this.renderScale,
+    this.maxFps,
+    this.frameCache = false,
     Key? key,
   })  : this.url = null,
         this.assetName = null,
@@ -111,7 +129,12 @@ class PAGView extends StatefulWidget {
 
 class PAGViewState extends State<PAGView> {
   bool _hasLoadTexture = false;
+  // 纹理只创建一次，didChangeDependencies可能多次调用
+  bool _textureRequested = false;
   int _textureId = -1;
+  // 本次初始化请求的id，dispose时用于取消未完成的初始化
+  int _requestId = 0;
+  static int _nextRequestId = 0;
 
   double rawWidth = 0;
   double rawHeight = 0;
@@ -129,6 +152,26 @@ class PAGViewState extends State<PAGView> {
   static const String _nativeEnableCache = "enableCache";
   static const String _nativeSetCacheSize = "setCacheSize";
   static const String _nativeEnableMultiThread = "enableMultiThread";
+  static const String _nativeSetVisible = "setVisible";
+  static const String _nativeGetRenderMetrics = "getRenderMetrics";
+  static const String _nativeGetFrameStats = "getFrameStats";
+  static const String _nativeSetFileLoadThreshold = "setFileLoadThreshold";
+  static const String _nativeSetMemoryCacheSize = "setMemoryCacheSize";
+  static const String _nativeGetMemoryCacheStats = "getMemoryCacheStats";
+  static const String _nativePreload = "preload";
+  static const String _nativeCancelPreload = "cancelPreload";
+  static const String _nativeSetCacheIdleTimeout = "setCacheIdleTimeout";
+  static const String _nativeGetTexturePoolStats = "getTexturePoolStats";
+  static const String _nativeBatch = "batch";
+  static const String _nativeUpdateSize = "updateSize";
+  static const String _nativeEnableRenderDownscale = "enableRenderDownscale";
+  static const String _nativeSetMaxFps = "setMaxFps";
+  static const String _nativeSetFrameBudget = "setFrameBudget";
+  static const String _nativeSetFrameCacheSize = "setFrameCacheSize";
+  static const String _nativeGetFrameCacheStats = "getFrameCacheStats";
+  static const String _nativeCancelInit = "cancelInit";
+  static const String _nativeSetDiskCachePolicy = "setDiskCachePolicy";
+  static const String _nativeGetLoadMetrics = "getLoadMetrics";
 
   // 参数
   static const String _argumentTextureId = 'textureId';
@@ -148,6 +191,29 @@ class PAGViewState extends State<PAGView> {
   static const String _argumentCacheEnabled = "cacheEnabled";
   static const String _argumentCacheSize = "cacheSize";
   static const String _argumentMultiThreadEnabled = "multiThreadEnabled";
+  static const String _argumentVisible = "visible";
+  static const String _argumentReset = "reset";
+  static const String _argumentThreshold = "threshold";
+  static const String _argumentMemoryCacheSize = "memoryCacheSize";
+  static const String _argumentItems = "items";
+  static const String _argumentParse = "parse";
+  static const String _argumentPriority = "priority";
+  static const String _argumentPreloadId = "preloadId";
+  static const String _argumentIdleTimeout = "idleTimeout";
+  static const String _argumentTextureIds = "textureIds";
+  static const String _argumentOps = "ops";
+  static const String _argumentValues = "values";
+  static const String _argumentRenderWidth = "renderWidth";
+  static const String _argumentRenderHeight = "renderHeight";
+  static const String _argumentRenderScale = "renderScale";
+  static const String _argumentDownscaleEnabled = "downscaleEnabled";
+  static const String _argumentMaxFps = "maxFps";
+  static const String _argumentFrameBudget = "frameBudget";
+  static const String _argumentFrameCache = "frameCache";
+  static const String _argumentFrameCacheSize = "frameCacheSize";
+  static const String _argumentRequestId = "requestId";
+  static const String _argumentDefaultMaxAge = "defaultMaxAge";
+  static const String _argumentStaleWhileRevalidate = "staleWhileRevalidate";
 
   // 监听该函数
   static const String _playCallback = 'PAGCallback';
@@ -169,20 +235,29 @@ class PAGViewState extends State<PAGView> {
 
   static Map<int, Function(String event)?> callbackHandlers = {};
 
+  // 拖动进度专用的二进制通道，每条记录为小端的int64 textureId + float64 progress
+  static const BasicMessageChannel<ByteData?> _progressChannel = BasicMessageChannel<ByteData?>('flutter_pag_plugin/progress', BinaryCodec());
+  static const int _progressRecordSize = 16;
+
+  // 渲染尺寸依赖MediaQuery，不能在initState中读取
   @override
-  void initState() {
-    super.initState();
-    newTexture();
+  void didChangeDependencies() {
+    super.didChangeDependencies();
+    if (!_textureRequested) {
+      _textureRequested = true;
+      newTexture();
+    }
   }
 
   // 初始化
   void newTexture() async {
     int repeatCount = widget.repeatCount <= 0 && widget.repeatCount != PAGView.REPEAT_COUNT_LOOP ? PAGView.REPEAT_COUNT_DEFAULT : widget.repeatCount;
     double initProcess = widget.initProgress < 0 ? 0 : widget.initProgress;
+    _requestId = ++_nextRequestId;
 
     try {
       dynamic result =
-          await _channel.invokeMethod(_nativeInit, {_argumentAssetName: widget.assetName, _argumentPackage: widget.package, _argumentUrl: widget.url, _argumentBytes: widget.bytesData, _argumentRepeatCount: repeatCount, _argumentInitProgress: initProcess, _argumentAutoPlay: widget.autoPlay});
+          await _channel.invokeMethod(_nativeInit, {_argumentAssetName: widget.assetName, _argumentPackage: widget.package, _argumentUrl: widget.url, _argumentBytes: widget.bytesData, _argumentRepeatCount: repeatCount, _argumentInitProgress: initProcess, _argumentAutoPlay: widget.autoPlay, _argumentMaxFps: widget.maxFps ?? 0, _argumentFrameCache: widget.frameCache, _argumentRequestId: _requestId, ..._renderSizeArguments()});
       if (result is Map) {
         _textureId = result[_argumentTextureId];
         rawWidth = result[_argumentWidth] ?? 0;
@@ -193,7 +268,7 @@ class PAGViewState extends State<PAGView> {
           _hasLoadTexture = true;
         });
         widget.onInit?.call();
-      } else {
+      } else if (_textureId >= 0) {
         _channel.invokeMethod(_nativeRelease, {_argumentTextureId: _textureId});
       }
     } catch (e) {
@@ -214,6 +289,26 @@ class PAGViewState extends State<PAGView> {
     }
   }
 
+  // 按显示尺寸（物理像素）渲染，未设置宽高时使用动画原始尺寸
+  Map<String, dynamic> _renderSizeArguments() {
+    // 没有MediaQuery祖先时使用所在View的像素比
+    double devicePixelRatio = MediaQuery.maybeDevicePixelRatioOf(context) ?? View.of(context).devicePixelRatio;
+    return {
+      _argumentRenderWidth: widget.width == null ? 0 : (widget.width! * devicePixelRatio).round(),
+      _argumentRenderHeight: widget.height == null ? 0 : (widget.height! * devicePixelRatio).round(),
+      _argumentRenderScale: widget.renderScale ?? 0,
+    };
+  }
+
+  @override
+  void didUpdateWidget(PAGView oldWidget) {
+    super.didUpdateWidget(oldWidget);
+    // 仅安卓支持调整渲染尺寸
+    if (_hasLoadTexture && defaultTargetPlatform == TargetPlatform.android && (oldWidget.width != widget.width || oldWidget.height != widget.height || oldWidget.renderScale != widget.renderScale)) {
+      _channel.invokeMethod(_nativeUpdateSize, {_argumentTextureId: _textureId, ..._renderSizeArguments()});
+    }
+  }
+
   /// 开始
   void start() {
     if (!_hasLoadTexture) {
@@ -246,7 +341,34 @@ class PAGViewState extends State<PAGView> {
     _channel.invokeMethod(_nativeSetProgress, {_argumentTextureId: _textureId, _argumentProgress: progress});
   }
 
-  /// 获取某一位置的图层
+  /// 拖动时高频设置进度（仅安卓），走二进制通道，不经过MethodChannel的参数编码
+  void scrubProgress(double progress) {
+    if (!_hasLoadTexture) {
+      return;
+    }
+    ByteData data = ByteData(_progressRecordSize)
+      ..setInt64(0, _textureId, Endian.little)
+      ..setFloat64(8, progress, Endian.little);
+    _progressChannel.send(data);
+  }
+
+  /// 设置帧率上限（仅安卓），<=0时恢复为动画自身帧率
+  void setMaxFps(double fps) {
+    if (!_hasLoadTexture) {
+      return;
+    }
+    _channel.invokeMethod(_nativeSetMaxFps, {_argumentTextureId: _textureId, _argumentMaxFps: fps});
+  }
+
+  /// 设置是否可见，可见的纹理优先渲染；不可见时暂停推进与渲染，恢复可见后从原进度继续（仅安卓）
+  void setVisible(bool visible) {
+    if (!_hasLoadTexture) {
+      return;
+    }
+    _channel.invokeMethod(_nativeSetVisible, {_argumentTextureId: _textureId, _argumentVisible: visible});
+  }
+
+  /// 获取某一位置的图层，x、y为动画原始尺寸（rawWidth/rawHeight）下的坐标，与渲染尺寸无关
   Future<List<String>> getLayersUnderPoint(double x, double y) async {
     if (!_hasLoadTexture) {
       return [];
@@ -274,13 +396,69 @@ class PAGViewState extends State<PAGView> {
   @override
   void dispose() {
     super.dispose();
-    _channel.invokeMethod(_nativeRelease, {_argumentTextureId: _textureId});
-    callbackHandlers.remove(_textureId);
+    if (_textureId >= 0) {
+      _channel.invokeMethod(_nativeRelease, {_argumentTextureId: _textureId});
+      callbackHandlers.remove(_textureId);
+    } else if (defaultTargetPlatform == TargetPlatform.android) {
+      // 初始化未完成，取消后原生侧不再分配纹理（仅安卓）
+      _channel.invokeMethod(_nativeCancelInit, {_argumentRequestId: _requestId});
+    }
   }
 }
 
 typedef PAGCallback = void Function();
 
+// 批量控制多个PAGView（仅安卓），commit时一次性发送到原生并按添加顺序执行
+class PAGBatch {
+  // 与安卓FlutterPagPlugin中的_batchOp保持一致
+  static const int _opStart = 0;
+  static const int _opStop = 1;
+  static const int _opPause = 2;
+  static const int _opSetProgress = 3;
+  static const int _opSetVisible = 4;
+
+  final List<int> _textureIds = [];
+  final List<int> _ops = [];
+  final List<double> _values = [];
+
+  void start(PAGViewState state) => _add(state, _opStart, 0);
+
+  void stop(PAGViewState state) => _add(state, _opStop, 0);
+
+  void pause(PAGViewState state) => _add(state, _opPause, 0);
+
+  void setProgress(PAGViewState state, double progress) => _add(state, _opSetProgress, progress);
+
+  void setVisible(PAGViewState state, bool visible) => _add(state, _opSetVisible, visible ? 1 : 0);
+
+  void _add(PAGViewState state, int op, double value) {
+    if (!state._hasLoadTexture) {
+      return;
+    }
+    _textureIds.add(state._textureId);
+    _ops.add(op);
+    _values.add(value);
+  }
+
+  bool get isEmpty => _ops.isEmpty;
+
+  // 发送并清空已添加的操作
+  Future<void> commit() async {
+    if (_ops.isEmpty) {
+      return;
+    }
+    Map<String, dynamic> arguments = {
+      PAGViewState._argumentTextureIds: Int64List.fromList(_textureIds),
+      PAGViewState._argumentOps: Int32List.fromList(_ops),
+      PAGViewState._argumentValues: Float64List.fromList(_values),
+    };
+    _textureIds.clear();
+    _ops.clear();
+    _values.clear();
+    await PAGViewState._channel.invokeMethod(PAGViewState._nativeBatch, arguments);
+  }
+}
+
 // PAG设置
 class PAG {
   // 是否开启缓存，默认true
@@ -288,6 +466,16 @@ class PAG {
     PAGViewState._channel.invokeMethod(PAGViewState._nativeEnableCache, {PAGViewState._argumentCacheEnabled: enable});
   }
 
+  // 发热或内存紧张时降低渲染分辨率（仅安卓），默认false，对之后初始化或调整尺寸的纹理生效
+  static void enableRenderDownscale(bool enable) {
+    PAGViewState._channel.invokeMethod(PAGViewState._nativeEnableRenderDownscale, {PAGViewState._argumentDownscaleEnabled: enable});
+  }
+
+  // 所有动画每秒渲染帧数的总预算（仅安卓），同时播放的动画较多时平分帧率（最低15），<=0不限制，默认不限制
+  static void setFrameBudget(int framesPerSecond) {
+    PAGViewState._channel.invokeMethod(PAGViewState._nativeSetFrameBudget, {PAGViewState._argumentFrameBudget: framesPerSecond});
+  }
+
   // 是否多线程加载和释放资源，默认true
   static void enableMultiThread(bool enable) {
     PAGViewState._channel.invokeMethod(PAGViewState._nativeEnableMultiThread, {PAGViewState._argumentMultiThreadEnabled: enable});
@@ -297,4 +485,126 @@ class PAG {
   static void setCacheSize(int size) {
     PAGViewState._channel.invokeMethod(PAGViewState._nativeSetCacheSize, {PAGViewState._argumentCacheSize: size});
   }
+
+  // 缓存的空闲纹理超过该毫秒数后释放（仅安卓），默认30秒
+  static void setCacheIdleTimeout(int milliseconds) {
+    PAGViewState._channel.invokeMethod(PAGViewState._nativeSetCacheIdleTimeout, {PAGViewState._argumentIdleTimeout: milliseconds});
+  }
+
+  // 纹理缓存统计（仅安卓）：size、hitCount（尺寸一致直接复用）、reallocCount（需重新分配buffer）、missCount、evictionCount
+  static Future<Map<String, dynamic>> getTexturePoolStats() async {
+    Map? result = await PAGViewState._channel.invokeMethod(PAGViewState._nativeGetTexturePoolStats);
+    return result?.cast<String, dynamic>() ?? {};
+  }
+
+  // 网络资源的硬盘缓存文件不小于该字节数时按文件路径加载，不占用Java堆（仅安卓），默认2MB
+  static void setFileLoadThreshold(int bytes) {
+    PAGViewState._channel.invokeMethod(PAGViewState._nativeSetFileLoadThreshold, {PAGViewState._argumentThreshold: bytes});
+  }
+
+  // 网络资源硬盘缓存的校验策略（仅安卓）
+  // 服务器返回ETag/Last-Modified时过期后发送条件请求，304时继续使用缓存；有效期取自Cache-Control/Expires
+  // defaultMaxAge：服务器未返回有效期时的默认值，单位秒，小于0表示不过期（默认）
+  // staleWhileRevalidate：为true时过期的缓存先直接使用，同时在后台校验更新
+  static void setDiskCachePolicy({int defaultMaxAge = -1, bool staleWhileRevalidate = false}) {
+    PAGViewState._channel.invokeMethod(PAGViewState._nativeSetDiskCachePolicy,
+        {PAGViewState._argumentDefaultMaxAge: defaultMaxAge, PAGViewState._argumentStaleWhileRevalidate: staleWhileRevalidate});
+  }
+
+  // 设置网络资源内存缓存上限，单位字节（仅安卓），默认为最大堆内存的1/50
+  static void setMemoryCacheSize(int bytes) {
+    PAGViewState._channel.invokeMethod(PAGViewState._nativeSetMemoryCacheSize, {PAGViewState._argumentMemoryCacheSize: bytes});
+  }
+
+  // 后台预加载一批资源到缓存（仅安卓），parse为true时同时预解析，返回的id可用于cancelPreload
+  static Future<int> preload(List<PAGPreloadItem> items, {bool parse = false}) async {
+    int? id = await PAGViewState._channel.invokeMethod(PAGViewState._nativePreload,
+        {PAGViewState._argumentItems: items.map((item) => item._toMap()).toList(), PAGViewState._argumentParse: parse});
+    return id ?? 0;
+  }
+
+  // 取消预加载任务，进行中的下载在没有其他请求等待时中断（仅安卓）
+  static void cancelPreload(int id) {
+    PAGViewState._channel.invokeMethod(PAGViewState._nativeCancelPreload, {PAGViewState._argumentPreloadId: id});
+  }
+
+  // 一次发送多个纹理的进度（仅安卓），states与progresses一一对应
+  static void scrubProgress(List<PAGViewState> states, List<double> progresses) {
+    int count = states.length < progresses.length ? states.length : progresses.length;
+    ByteData data = ByteData(count * PAGViewState._progressRecordSize);
+    int offset = 0;
+    for (int i = 0; i < count; i++) {
+      if (!states[i]._hasLoadTexture) {
+        continue;
+      }
+      data.setInt64(offset, states[i]._textureId, Endian.little);
+      data.setFloat64(offset + 8, progresses[i], Endian.little);
+      offset += PAGViewState._progressRecordSize;
+    }
+    if (offset > 0) {
+      PAGViewState._progressChannel.send(ByteData.sublistView(data, 0, offset));
+    }
+  }
+
+  // 帧缓存上限，单位字节（仅安卓），默认16MB，超过上限的动画不使用帧缓存
+  static void setFrameCacheSize(int bytes) {
+    PAGViewState._channel.invokeMethod(PAGViewState._nativeSetFrameCacheSize, {PAGViewState._argumentFrameCacheSize: bytes});
+  }
+
+  // 帧缓存统计（仅安卓）：size、maxSize、sequenceCount、hitCount（直接使用缓存的帧数）、renderCount（实际渲染的帧数）
+  static Future<Map<String, dynamic>> getFrameCacheStats() async {
+    Map? result = await PAGViewState._channel.invokeMethod(PAGViewState._nativeGetFrameCacheStats);
+    return result?.cast<String, dynamic>() ?? {};
+  }
+
+  // 内存缓存统计（仅安卓）：size、maxSize、hitCount、missCount、evictionCount、putCount
+  static Future<Map<String, dynamic>> getMemoryCacheStats() async {
+    Map? result = await PAGViewState._channel.invokeMethod(PAGViewState._nativeGetMemoryCacheStats);
+    return result?.cast<String, dynamic>() ?? {};
+  }
+
+  // 渲染统计（仅安卓）：queueDepth、droppedFrames、avgFlushLatencyMs等，reset为true时读取后清零
+  static Future<Map<String, dynamic>> getRenderMetrics({bool reset = false}) async {
+    Map? result = await PAGViewState._channel.invokeMethod(PAGViewState._nativeGetRenderMetrics, {PAGViewState._argumentReset: reset});
+    return result?.cast<String, dynamic>() ?? {};
+  }
+
+  // initPag分阶段耗时统计（仅安卓），单位毫秒，reset为true时读取后清零
+  // stages：load、parse、texture、init、firstFrame、total各阶段的count/p50/p95/p99/max，total为请求到回复的耗时，不等待首帧
+  // tiers：按数据来源（composition、bytes、asset、memory、disk、network）统计的total耗时分布
+  // recent：最近20次初始化的tier及各阶段耗时
+  static Future<Map<String, dynamic>> getLoadMetrics({bool reset = false}) async {
+    Map? result = await PAGViewState._channel.invokeMethod(PAGViewState._nativeGetLoadMetrics, {PAGViewState._argumentReset: reset});
+    return result?.cast<String, dynamic>() ?? {};
+  }
+
+  // 各纹理的帧统计（仅安卓），key为textureId，skippedFrames为渲染跟不上时合并掉的帧数，
+  // cappedFrames为因帧率上限跳过的vsync数，unchangedFrames为帧号未变化而跳过的渲染数，fps为当前生效的帧率上限
+  static Future<Map<int, Map<String, dynamic>>> getFrameStats() async {
+    Map? result = await PAGViewState._channel.invokeMethod(PAGViewState._nativeGetFrameStats);
+    return result?.map((key, value) => MapEntry(key as int, (value as Map).cast<String, dynamic>())) ?? {};
+  }
+}
+
+// 预加载资源，url与assetName二选一，priority越大越先加载
+class PAGPreloadItem {
+  final String? url;
+  final String? assetName;
+  final String? package;
+  final int priority;
+
+  PAGPreloadItem.network(String this.url, {this.priority = 0})
+      : assetName = null,
+        package = null;
+
+  PAGPreloadItem.asset(String this.assetName, {this.package, this.priority = 0}) : url = null;
+
+  Map<String, dynamic> _toMap() {
+    return {
+      PAGViewState._argumentUrl: url,
+      PAGViewState._argumentAssetName: assetName,
+      PAGViewState._argumentPackage: package,
+      PAGViewState._argumentPriority: priority,
+    };
+  }
 }